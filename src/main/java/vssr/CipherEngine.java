@@ -0,0 +1,154 @@
+package vssr;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Symmetric encryption without a shared lock. Each thread has its own ciphers, and ciphers for the long-lived keys
+ * of each peer are initialized once per thread, so their key schedule is not recomputed on every call. Each thread
+ * keeps the ciphers of the peers it used most recently only, as replicas talk to every client that ever connects.
+ * Ciphers are reused without a new initialization vector, as the configured algorithms do not use one.
+ */
+public class CipherEngine {
+    private static final String AUTHENTICATED_ALGORITHM = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final int CIPHERS_PER_THREAD = 64;
+    private final String algorithm;
+    private final KeysManager keysManager;
+    private final ThreadLocal<Cipher> cipher;
+    private final ThreadLocal<Map<Integer, InitializedCipher>> encryptionCiphers;
+    private final ThreadLocal<Map<Integer, InitializedCipher>> decryptionCiphers;
+    private final ThreadLocal<Cipher> authenticatedCipher;
+    private final ThreadLocal<SecureRandom> ivGenerator;
+
+    public CipherEngine(String algorithm, KeysManager keysManager) throws NoSuchPaddingException, NoSuchAlgorithmException {
+        Cipher.getInstance(algorithm);
+        this.algorithm = algorithm;
+        this.keysManager = keysManager;
+        this.cipher = ThreadLocal.withInitial(this::newCipher);
+        this.encryptionCiphers = ThreadLocal.withInitial(CipherEngine::newCipherCache);
+        this.decryptionCiphers = ThreadLocal.withInitial(CipherEngine::newCipherCache);
+        this.authenticatedCipher = ThreadLocal.withInitial(() -> {
+            try {
+                return Cipher.getInstance(AUTHENTICATED_ALGORITHM);
+            }
+            catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                throw new IllegalStateException("Failed to initialize the authenticated cipher", e);
+            }
+        });
+        this.ivGenerator = ThreadLocal.withInitial(SecureRandom::new);
+    }
+
+    /**
+     * Encrypts with the encryption key of the given process.
+     */
+    public byte[] encryptFor(int id, byte[] data) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        return doFinal(encryptionCiphers.get(), id, Cipher.ENCRYPT_MODE, keysManager.getEncryptionKeyFor(id), data);
+    }
+
+    /**
+     * Decrypts with the decryption key of the given process.
+     */
+    public byte[] decryptFrom(int id, byte[] data) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        return doFinal(decryptionCiphers.get(), id, Cipher.DECRYPT_MODE, keysManager.getDecryptionKeyFor(id), data);
+    }
+
+    /**
+     * Encrypts and authenticates with AES/GCM under the encryption key of the given process. The result is the
+     * random initialization vector followed by the ciphertext and tag.
+     */
+    public byte[] encryptAuthenticatedFor(int id, byte[] data) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        ivGenerator.get().nextBytes(iv);
+        Cipher c = authenticatedCipher.get();
+        c.init(Cipher.ENCRYPT_MODE, keysManager.getEncryptionKeyFor(id), new GCMParameterSpec(TAG_LENGTH, iv));
+        byte[] result = new byte[IV_LENGTH + c.getOutputSize(data.length)];
+        System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+        c.doFinal(data, 0, data.length, result, IV_LENGTH);
+        return result;
+    }
+
+    /**
+     * Reverses {@link #encryptAuthenticatedFor(int, byte[])} with the decryption key of the given process. Fails if
+     * the data was modified.
+     */
+    public byte[] decryptAuthenticatedFrom(int id, byte[] data) throws GeneralSecurityException {
+        if (data.length < IV_LENGTH) {
+            throw new IllegalBlockSizeException("Missing initialization vector");
+        }
+        Cipher c = authenticatedCipher.get();
+        c.init(Cipher.DECRYPT_MODE, keysManager.getDecryptionKeyFor(id), new GCMParameterSpec(TAG_LENGTH, data, 0, IV_LENGTH));
+        return c.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+    }
+
+    public byte[] encrypt(byte[] data, Key encryptionKey) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        Cipher c = cipher.get();
+        c.init(Cipher.ENCRYPT_MODE, encryptionKey);
+        return c.doFinal(data);
+    }
+
+    public byte[] decrypt(byte[] data, Key decryptionKey) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        Cipher c = cipher.get();
+        c.init(Cipher.DECRYPT_MODE, decryptionKey);
+        return c.doFinal(data);
+    }
+
+    private byte[] doFinal(Map<Integer, InitializedCipher> ciphers, int id, int mode, Key key, byte[] data)
+            throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        InitializedCipher initializedCipher = ciphers.get(id);
+        //keys are compared by reference so that a replaced key is picked up
+        if (initializedCipher == null || initializedCipher.key != key) {
+            Cipher c = newCipher();
+            c.init(mode, key);
+            initializedCipher = new InitializedCipher(key, c);
+            ciphers.put(id, initializedCipher);
+        }
+        try {
+            return initializedCipher.cipher.doFinal(data);
+        }
+        catch (BadPaddingException | IllegalBlockSizeException e) {
+            //do not rely on the state of a cipher that failed
+            ciphers.remove(id);
+            throw e;
+        }
+    }
+
+    private static Map<Integer, InitializedCipher> newCipherCache() {
+        return new LinkedHashMap<Integer, InitializedCipher>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, InitializedCipher> eldest) {
+                return size() > CIPHERS_PER_THREAD;
+            }
+        };
+    }
+
+    private Cipher newCipher() {
+        try {
+            return Cipher.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("Failed to initialize the cipher", e);
+        }
+    }
+
+    private static class InitializedCipher {
+        private final Key key;
+        private final Cipher cipher;
+
+        private InitializedCipher(Key key, Cipher cipher) {
+            this.key = key;
+            this.cipher = cipher;
+        }
+    }
+}
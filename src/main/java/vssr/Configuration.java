@@ -16,7 +16,21 @@ public class Configuration {
     private int recoveryPort;
     private boolean useTLSEncryption;
     private int shareProcessingThreads;
+    private int replyEncryptionThreads;
+    private int executionThreads;
+    private long encryptedShareCacheBytes;
     private boolean verifyClientRequests;
+    private int verificationThreads;
+    private int generatorTableWindow;
+    private int cachedVerifiedRequests;
+    private long cachedVerifiedRequestAge;
+    private int precomputedSharingKits;
+    private int precomputationThreads;
+    private int clientSharingThreads;
+    private int clientReconstructionThreads;
+    private boolean clientDigestReplies;
+    private boolean clientOptimisticReads;
+    private boolean bulkShareEncryption;
     private static Configuration INSTANT;
     
     public static void setConfigurationFilePath(final String configurationFilePath) {
@@ -38,6 +52,15 @@ public class Configuration {
     private Configuration(final String configurationFilePath) throws IOException {
         dataEncryptionAlgorithm = "AES";
         shareEncryptionAlgorithm = "AES";
+        precomputationThreads = 1;
+        clientSharingThreads = 1;
+        verificationThreads = 1;
+        executionThreads = 1;
+        cachedVerifiedRequests = 4096;
+        cachedVerifiedRequestAge = 30000;
+        clientReconstructionThreads = 1;
+        clientDigestReplies = false;
+        clientOptimisticReads = false;
         try (BufferedReader in = new BufferedReader(new FileReader(configurationFilePath))) {
             String line;
             while ((line = in.readLine()) != null) {
@@ -82,6 +105,10 @@ public class Configuration {
                         shareEncryptionAlgorithm = value;
                         continue;
                     }
+                    case "cobra.vss.bulk_share_encryption": {
+                        bulkShareEncryption = Boolean.parseBoolean(value);
+                        continue;
+                    }
                     case "cobra.recovery.port": {
                         recoveryPort = Integer.parseInt(value);
                         continue;
@@ -94,10 +121,62 @@ public class Configuration {
                         shareProcessingThreads = Integer.parseInt(value);
                         continue;
                     }
+                    case "cobra.reply_encryption_threads": {
+                        replyEncryptionThreads = Integer.parseInt(value);
+                        continue;
+                    }
+                    case "cobra.execution_threads": {
+                        executionThreads = Integer.parseInt(value);
+                        continue;
+                    }
+                    case "cobra.encrypted_share_cache_bytes": {
+                        encryptedShareCacheBytes = Long.parseLong(value);
+                        continue;
+                    }
                     case "cobra.verify.requests": {
                         verifyClientRequests = Boolean.parseBoolean(value);
                         continue;
                     }
+                    case "cobra.verify.threads": {
+                        verificationThreads = Integer.parseInt(value);
+                        continue;
+                    }
+                    case "cobra.verify.generator_table_window": {
+                        generatorTableWindow = Integer.parseInt(value);
+                        continue;
+                    }
+                    case "cobra.verify.cached_requests": {
+                        cachedVerifiedRequests = Integer.parseInt(value);
+                        continue;
+                    }
+                    case "cobra.verify.cached_request_age": {
+                        cachedVerifiedRequestAge = Long.parseLong(value);
+                        continue;
+                    }
+                    case "cobra.client.precomputed_sharing_kits": {
+                        precomputedSharingKits = Integer.parseInt(value);
+                        continue;
+                    }
+                    case "cobra.client.precomputation_threads": {
+                        precomputationThreads = Integer.parseInt(value);
+                        continue;
+                    }
+                    case "cobra.client.sharing_threads": {
+                        clientSharingThreads = Integer.parseInt(value);
+                        continue;
+                    }
+                    case "cobra.client.reconstruction_threads": {
+                        clientReconstructionThreads = Integer.parseInt(value);
+                        continue;
+                    }
+                    case "cobra.client.digest_replies": {
+                        clientDigestReplies = Boolean.parseBoolean(value);
+                        continue;
+                    }
+                    case "cobra.client.optimistic_reads": {
+                        clientOptimisticReads = Boolean.parseBoolean(value);
+                        continue;
+                    }
                     default: {
                         throw new IllegalArgumentException("Unknown property name");
                     }
@@ -110,10 +189,62 @@ public class Configuration {
         return this.shareProcessingThreads;
     }
     
+    public int getReplyEncryptionThreads() {
+        return this.replyEncryptionThreads;
+    }
+    
+    public int getExecutionThreads() {
+        return this.executionThreads;
+    }
+    
+    public long getEncryptedShareCacheBytes() {
+        return this.encryptedShareCacheBytes;
+    }
+    
     public boolean isVerifyClientRequests() {
         return this.verifyClientRequests;
     }
     
+    public int getVerificationThreads() {
+        return this.verificationThreads;
+    }
+    
+    public int getGeneratorTableWindow() {
+        return this.generatorTableWindow;
+    }
+    
+    public int getCachedVerifiedRequests() {
+        return this.cachedVerifiedRequests;
+    }
+    
+    public long getCachedVerifiedRequestAge() {
+        return this.cachedVerifiedRequestAge;
+    }
+    
+    public int getPrecomputedSharingKits() {
+        return this.precomputedSharingKits;
+    }
+    
+    public int getPrecomputationThreads() {
+        return this.precomputationThreads;
+    }
+    
+    public int getClientSharingThreads() {
+        return this.clientSharingThreads;
+    }
+    
+    public int getClientReconstructionThreads() {
+        return this.clientReconstructionThreads;
+    }
+    
+    public boolean isClientDigestReplies() {
+        return this.clientDigestReplies;
+    }
+    
+    public boolean isClientOptimisticReads() {
+        return this.clientOptimisticReads;
+    }
+    
     public String getVssScheme() {
         return this.vssScheme;
     }
@@ -138,6 +269,10 @@ public class Configuration {
         return this.shareEncryptionAlgorithm;
     }
     
+    public boolean isBulkShareEncryption() {
+        return this.bulkShareEncryption;
+    }
+    
     public int getRecoveryPort() {
         return this.recoveryPort;
     }
@@ -7,7 +7,25 @@ public enum Metadata {
     
     public static Metadata[] values = values();
     
+    /**
+     * Flag set on the metadata byte of client requests asking the servers for digest replies: only one designated
+     * server sends the common part of the response, the others send their shares and its digest.
+     */
+    private static final int DIGEST_REPLIES_FLAG = 0x40;
+    
     public static Metadata getMessageType(int ordinal) {
-        return Metadata.values[ordinal];
+        return Metadata.values[ordinal & ~DIGEST_REPLIES_FLAG];
+    }
+    
+    public static byte withDigestReplies(byte metadata) {
+        return (byte)(metadata | DIGEST_REPLIES_FLAG);
+    }
+    
+    public static byte withoutDigestReplies(byte metadata) {
+        return (byte)(metadata & ~DIGEST_REPLIES_FLAG);
+    }
+    
+    public static boolean isDigestReplies(byte[] metadata) {
+        return metadata != null && metadata.length > 0 && (metadata[0] & DIGEST_REPLIES_FLAG) != 0;
     }
 }
@@ -11,7 +11,6 @@ import vssr.dprf.DPRFParameters;
 import vssr.dprf.DPRFScheme;
 
 import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import java.math.BigInteger;
@@ -19,25 +18,24 @@ import java.security.*;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class VSSRConfidentialityScheme {
     protected final Logger logger;
     protected final VSSFacade vss;
     private final Map<Integer, BigInteger> serverToShareholder;
     private final Map<BigInteger, Integer> shareholderToServer;
-    private final Cipher cipher;
+    private final CipherEngine cipherEngine;
     private final boolean isLinearCommitmentScheme;
+    private final boolean isBulkShareEncryption;
+    private final Properties vssProperties;
+    private final BigInteger[] vssShareholders;
     protected KeysManager keysManager;
     protected DPRFScheme dprfScheme;
     protected DPRFParameters dprfParameters;
     protected final int f;
-    private final Lock cipherLock;
 
     public VSSRConfidentialityScheme(View view) throws SecretSharingException {
         this.logger = LoggerFactory.getLogger("vssr");
-        this.cipherLock = new ReentrantLock(true);
         int[] processes = view.getProcesses();
         this.serverToShareholder = new HashMap<>(processes.length);
         this.shareholderToServer = new HashMap<>(processes.length);
@@ -62,23 +60,46 @@ public abstract class VSSRConfidentialityScheme {
             properties.put("q", configuration.getSubPrimeField());
             properties.put("g", configuration.getGenerator());
         }
+        this.vssProperties = properties;
+        this.vssShareholders = shareholders;
+        this.vss = createVSSFacade();
+        this.keysManager = new KeysManager();
         try {
-            this.cipher = Cipher.getInstance(configuration.getShareEncryptionAlgorithm());
+            this.cipherEngine = new CipherEngine(configuration.getShareEncryptionAlgorithm(), keysManager);
         }
         catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
             throw new SecretSharingException("Failed to initialize the cipher");
         }
-        this.vss = new VSSFacade(properties, shareholders);
-        this.keysManager = new KeysManager();
         this.isLinearCommitmentScheme = Configuration.getInstance().getVssScheme().equals("1");
+        this.isBulkShareEncryption = configuration.isBulkShareEncryption();
         this.dprfScheme = new DPRFScheme(this.vss.getField(), new BigInteger(configuration.getGenerator(), 16));
         this.dprfParameters = this.dprfScheme.init(threshold, shareholders);
     }
 
+    /**
+     * Creates a facade with the same parameters as {@link #vss}. A facade is not thread safe, so threads that share
+     * concurrently each need their own.
+     */
+    protected VSSFacade createVSSFacade() throws SecretSharingException {
+        return new VSSFacade(vssProperties, vssShareholders);
+    }
+
+    public int getThreshold() {
+        return this.f;
+    }
+
     public boolean isLinearCommitmentScheme() {
         return this.isLinearCommitmentScheme;
     }
 
+    /**
+     * When true, shares are not encrypted individually. All shares a client sends to a server are encrypted together
+     * with {@link #encryptSharesFor(int, byte[])}.
+     */
+    public boolean isBulkShareEncryption() {
+        return this.isBulkShareEncryption;
+    }
+
     public CommitmentScheme getCommitmentScheme() {
         return this.vss.getCommitmentScheme();
     }
@@ -96,15 +117,32 @@ public abstract class VSSRConfidentialityScheme {
     }
 
     public byte[] encryptShareFor(int id, Share clearShare) throws SecretSharingException {
-        Key encryptionKey = keysManager.getEncryptionKeyFor(id);
         try {
-            return encrypt(clearShare.getShare().toByteArray(), encryptionKey);
+            return cipherEngine.encryptFor(id, clearShare.getShare().toByteArray());
         }
         catch (InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
             throw new SecretSharingException("Failed to encrypt share", e);
         }
     }
 
+    public byte[] encryptSharesFor(int id, byte[] serializedShares) throws SecretSharingException {
+        try {
+            return cipherEngine.encryptAuthenticatedFor(id, serializedShares);
+        }
+        catch (GeneralSecurityException e) {
+            throw new SecretSharingException("Failed to encrypt shares", e);
+        }
+    }
+
+    public byte[] decryptShares(int id, byte[] encryptedShares) throws SecretSharingException {
+        try {
+            return cipherEngine.decryptAuthenticatedFrom(id, encryptedShares);
+        }
+        catch (GeneralSecurityException e) {
+            throw new SecretSharingException("Failed to decrypt shares", e);
+        }
+    }
+
     public PublicKey getSigningPublicKeyFor(int id) {
         return this.keysManager.getSigningPublicKeyFor(id);
     }
@@ -114,9 +152,8 @@ public abstract class VSSRConfidentialityScheme {
     }
 
     public byte[] encryptDataFor(int id, byte[] data) {
-        Key encryptionKey = this.keysManager.getEncryptionKeyFor(id);
         try {
-            return this.encrypt(data, encryptionKey);
+            return cipherEngine.encryptFor(id, data);
         }
         catch (BadPaddingException | IllegalBlockSizeException | InvalidKeyException ex) {
             return null;
@@ -124,9 +161,8 @@ public abstract class VSSRConfidentialityScheme {
     }
 
     public BigInteger decryptShare(int id, byte[] encryptedShare) throws SecretSharingException {
-        Key decryptionKey = this.keysManager.getDecryptionKeyFor(id);
         try {
-            return new BigInteger(this.decrypt(encryptedShare, decryptionKey));
+            return new BigInteger(cipherEngine.decryptFrom(id, encryptedShare));
         }
         catch (InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
             throw new SecretSharingException("Failed to decrypt share", e);
@@ -134,9 +170,8 @@ public abstract class VSSRConfidentialityScheme {
     }
 
     public byte[] decryptData(int id, byte[] encryptedData) {
-        Key decryptionKey = this.keysManager.getDecryptionKeyFor(id);
         try {
-            return this.decrypt(encryptedData, decryptionKey);
+            return cipherEngine.decryptFrom(id, encryptedData);
         }
         catch (BadPaddingException | IllegalBlockSizeException | InvalidKeyException e) {
             return null;
@@ -144,24 +179,10 @@ public abstract class VSSRConfidentialityScheme {
     }
 
     protected byte[] encrypt(byte[] data, Key encryptionKey) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        try {
-            this.cipherLock.lock();
-            this.cipher.init(1, encryptionKey);
-            return this.cipher.doFinal(data);
-        }
-        finally {
-            this.cipherLock.unlock();
-        }
+        return cipherEngine.encrypt(data, encryptionKey);
     }
 
     protected byte[] decrypt(byte[] data, Key decryptionKey) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        try {
-            this.cipherLock.lock();
-            this.cipher.init(2, decryptionKey);
-            return this.cipher.doFinal(data);
-        }
-        finally {
-            this.cipherLock.unlock();
-        }
+        return cipherEngine.decrypt(data, decryptionKey);
     }
 }
@@ -0,0 +1,136 @@
+package vssr.benchmark;
+
+import bftsmart.tom.MessageContext;
+import vssr.ConfidentialData;
+import vssr.ConfidentialMessage;
+import vssr.demo.map.KVStoreServer;
+import vssr.demo.map.Operation;
+import vssr.server.DeterministicScheduler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the throughput of KVStoreServer executing decided batches of puts and gets with 1, 4 and 16 execution
+ * threads. Keys are drawn uniformly, so requests of a batch conflict more often with fewer keys. Checks that every
+ * thread count produces the replies of the sequential execution.
+ */
+public class BatchExecutionBenchmark {
+    private static final int[] nThreads = {1, 4, 16};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 6) {
+            System.out.println("USAGE: ... vssr.benchmark.BatchExecutionBenchmark <batch size> <num batches> <num keys> <write percentage> <warm up iterations> <test iterations>");
+            System.exit(-1);
+        }
+        int batchSize = Integer.parseInt(args[0]);
+        int nBatches = Integer.parseInt(args[1]);
+        int nKeys = Integer.parseInt(args[2]);
+        int writePercentage = Integer.parseInt(args[3]);
+        int warmUpIterations = Integer.parseInt(args[4]);
+        int testIterations = Integer.parseInt(args[5]);
+        System.out.println("batch size = " + batchSize);
+        System.out.println("number of batches = " + nBatches);
+        System.out.println("number of keys = " + nKeys);
+        System.out.println("write percentage = " + writePercentage);
+        System.out.println();
+
+        Random random = new Random(1);
+        byte[][][] plainData = new byte[nBatches][batchSize][];
+        ConfidentialData[][][] shares = new ConfidentialData[nBatches][batchSize][];
+        for (int b = 0; b < nBatches; b++) {
+            for (int i = 0; i < batchSize; i++) {
+                String key = "key" + random.nextInt(nKeys);
+                if (random.nextInt(100) < writePercentage) {
+                    plainData[b][i] = serialize(Operation.PUT, key);
+                    shares[b][i] = new ConfidentialData[] { new ConfidentialData() };
+                }
+                else {
+                    plainData[b][i] = serialize(Operation.GET, key);
+                }
+            }
+        }
+        //the store only reads the contexts to log failed requests
+        MessageContext[] msgCtx = new MessageContext[batchSize];
+
+        ConfidentialMessage[][] sequentialResponses = null;
+        for (int n : nThreads) {
+            DeterministicScheduler scheduler = new DeterministicScheduler(n);
+            System.out.println("Warming up with " + n + " threads (" + warmUpIterations + " iterations)");
+            for (int nT = 0; nT < warmUpIterations; nT++) {
+                execute(new KVStoreServer(scheduler), plainData, shares, msgCtx);
+            }
+            System.out.println("Running test with " + n + " threads (" + testIterations + " iterations)");
+            long[] times = new long[testIterations];
+            for (int nT = 0; nT < testIterations; nT++) {
+                KVStoreServer server = new KVStoreServer(scheduler);
+                long start = System.nanoTime();
+                ConfidentialMessage[][] responses = execute(server, plainData, shares, msgCtx);
+                long end = System.nanoTime();
+                times[nT] = end - start;
+                if (sequentialResponses == null) {
+                    sequentialResponses = responses;
+                }
+                else if (!sameResponses(sequentialResponses, responses)) {
+                    throw new IllegalStateException("Replies differ from the sequential execution");
+                }
+            }
+            if (testIterations > 0) {
+                double average = computeAverage(times);
+                System.out.println(n + " threads: " + average + " ms (" + (nBatches * batchSize * 1000.0 / average)
+                        + " requests/s)");
+            }
+        }
+    }
+
+    private static ConfidentialMessage[][] execute(KVStoreServer server, byte[][][] plainData,
+                                                   ConfidentialData[][][] shares, MessageContext[] msgCtx) {
+        ConfidentialMessage[][] responses = new ConfidentialMessage[plainData.length][];
+        for (int b = 0; b < plainData.length; b++) {
+            responses[b] = server.appExecuteBatch(plainData[b], shares[b], msgCtx);
+        }
+        return responses;
+    }
+
+    /**
+     * Replies are the same if they return the same stored values, as every put stores a different object.
+     */
+    private static boolean sameResponses(ConfidentialMessage[][] expected, ConfidentialMessage[][] actual) {
+        for (int b = 0; b < expected.length; b++) {
+            for (int i = 0; i < expected[b].length; i++) {
+                ConfidentialData[] expectedValues = expected[b][i].getShares();
+                ConfidentialData[] actualValues = actual[b][i].getShares();
+                int nExpected = expectedValues == null ? 0 : expectedValues.length;
+                int nActual = actualValues == null ? 0 : actualValues.length;
+                if (nExpected != nActual) {
+                    return false;
+                }
+                for (int j = 0; j < nExpected; j++) {
+                    if (expectedValues[j] != actualValues[j]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static byte[] serialize(Operation op, String key) throws IOException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutput out = new ObjectOutputStream(bos)) {
+            out.write((byte)op.ordinal());
+            out.writeUTF(key);
+            out.flush();
+            bos.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    private static double computeAverage(long[] values) {
+        return Arrays.stream(values).sum() / (double)values.length / 1000000.0;
+    }
+}
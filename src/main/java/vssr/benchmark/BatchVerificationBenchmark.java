@@ -0,0 +1,116 @@
+package vssr.benchmark;
+
+import bftsmart.reconfiguration.views.View;
+import vss.commitment.CommitmentScheme;
+import vss.facade.SecretSharingException;
+import vss.secretsharing.VerifiableShare;
+import vssr.Configuration;
+import vssr.VSSRPublishedShares;
+import vssr.VSSRShare;
+import vssr.client.ClientConfidentialityScheme;
+import vssr.server.ServerConfidentialityScheme;
+
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the verification by a server of the shares of a batch of write requests, each with one secret, as done
+ * when a proposal is checked. Compares checking every share with the commitment scheme against
+ * {@link ServerConfidentialityScheme#verifyAll(VSSRShare[])} on each request, which uses
+ * cobra.verify.generator_table_window and cobra.verify.threads.
+ */
+public class BatchVerificationBenchmark {
+    private static final int[] batchSizes = {64, 128, 256, 512, 1024};
+
+    public static void main(String[] args) throws SecretSharingException {
+        if (args.length != 3) {
+            System.out.println("USAGE: ... vssr.benchmark.BatchVerificationBenchmark <threshold> <warm up iterations> <test iterations>");
+            System.exit(-1);
+        }
+        int threshold = Integer.parseInt(args[0]);
+        int warmUpIterations = Integer.parseInt(args[1]);
+        int testIterations = Integer.parseInt(args[2]);
+        int n = 3 * threshold + 1;
+        int maxBatchSize = batchSizes[batchSizes.length - 1];
+        System.out.println("t = " + threshold);
+        System.out.println("n = " + n);
+        System.out.println("generator table window = " + Configuration.getInstance().getGeneratorTableWindow());
+        System.out.println("verification threads = " + Configuration.getInstance().getVerificationThreads());
+        System.out.println();
+        int[] servers = new int[n];
+        InetSocketAddress[] inetSocketAddresses = new InetSocketAddress[n];
+        for (int i = 0; i < n; ++i) {
+            inetSocketAddresses[servers[i] = i] = new InetSocketAddress(2);
+        }
+        View view = new View(100, servers, threshold, inetSocketAddresses);
+        ClientConfidentialityScheme clientConfidentialityScheme = new ClientConfidentialityScheme(view);
+        ServerConfidentialityScheme server = new ServerConfidentialityScheme(0, view);
+
+        System.out.println("Creating " + maxBatchSize + " requests");
+        SecureRandom rndGenerator = new SecureRandom("ola".getBytes());
+        List<VSSRShare[]> requests = new ArrayList<>(maxBatchSize);
+        for (int i = 0; i < maxBatchSize; i++) {
+            byte[] secret = new byte[1024];
+            rndGenerator.nextBytes(secret);
+            VSSRPublishedShares publishedShares = clientConfidentialityScheme.share(secret);
+            requests.add(new VSSRShare[] { server.extractShare(publishedShares) });
+        }
+        clientConfidentialityScheme.close();
+
+        System.out.println("Warming up (" + warmUpIterations + " iterations)");
+        if (warmUpIterations > 0) {
+            runTests(warmUpIterations, false, requests, server);
+        }
+        System.out.println("Running test (" + testIterations + " iterations)");
+        if (testIterations > 0) {
+            runTests(testIterations, true, requests, server);
+        }
+    }
+
+    private static void runTests(int nTests, boolean printResults, List<VSSRShare[]> requests,
+                                 ServerConfidentialityScheme server) {
+        CommitmentScheme commitmentScheme = server.getCommitmentScheme();
+        for (int batchSize : batchSizes) {
+            List<VSSRShare[]> batch = requests.subList(0, batchSize);
+            long[] perShareTimes = new long[nTests];
+            long[] batchTimes = new long[nTests];
+            for (int nT = 0; nT < nTests; nT++) {
+                long start = System.nanoTime();
+                for (VSSRShare[] shares : batch) {
+                    for (VSSRShare share : shares) {
+                        for (VerifiableShare verifiableShare : share.getVerifiableShares()) {
+                            if (verifiableShare != null && !commitmentScheme.checkValidityWithoutPreComputation(
+                                    verifiableShare.getShare(), verifiableShare.getCommitments())) {
+                                throw new IllegalStateException("Valid share was rejected");
+                            }
+                        }
+                    }
+                }
+                long end = System.nanoTime();
+                perShareTimes[nT] = end - start;
+
+                start = System.nanoTime();
+                for (VSSRShare[] shares : batch) {
+                    if (!server.verifyAll(shares)) {
+                        throw new IllegalStateException("Valid request was rejected");
+                    }
+                }
+                end = System.nanoTime();
+                batchTimes[nT] = end - start;
+            }
+            if (printResults) {
+                double perShareAvg = computeAverage(perShareTimes);
+                double batchAvg = computeAverage(batchTimes);
+                System.out.println("Batch of " + batchSize + " requests: commitment scheme " + perShareAvg
+                        + " ms, verifyAll " + batchAvg + " ms (" + (perShareAvg / batchAvg) + "x)");
+            }
+        }
+    }
+
+    private static double computeAverage(long[] values) {
+        return Arrays.stream(values).sum() / (double)values.length / 1000000.0;
+    }
+}
@@ -0,0 +1,104 @@
+package vssr.benchmark;
+
+import vssr.Configuration;
+import vssr.math.FixedBaseExponentiation;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+public class FixedBaseExponentiationBenchmark {
+    private static SecureRandom rndGenerator;
+    private static volatile int blackhole;
+
+    public static void main(String[] args) {
+        if (args.length != 4) {
+            System.out.println("USAGE: ... vssr.benchmark.FixedBaseExponentiationBenchmark <exponentiations per iteration> <warm up iterations> <test iterations> <window bits>");
+            System.exit(-1);
+        }
+        int nExponentiations = Integer.parseInt(args[0]);
+        int warmUpIterations = Integer.parseInt(args[1]);
+        int testIterations = Integer.parseInt(args[2]);
+        int windowBits = Integer.parseInt(args[3]);
+        rndGenerator = new SecureRandom("ola".getBytes());
+        Configuration configuration = Configuration.getInstance();
+        BigInteger p = new BigInteger(configuration.getPrimeField(), 16);
+        BigInteger q = new BigInteger(configuration.getSubPrimeField(), 16);
+        BigInteger g = new BigInteger(configuration.getGenerator(), 16);
+
+        System.out.println("exponentiations per iteration = " + nExponentiations);
+        System.out.println("window bits = " + windowBits);
+        System.out.println();
+
+        //DPRF group: generator reduced modulo the prime sub field
+        System.out.println("DPRF field (" + q.bitLength() + " bits)");
+        run(g, q, q.subtract(BigInteger.ONE), q, nExponentiations, warmUpIterations, testIterations, windowBits);
+        System.out.println();
+
+        //Commitment group: generator of the order q subgroup modulo p
+        System.out.println("Prime field (" + p.bitLength() + " bits)");
+        run(g, p, q, q, nExponentiations, warmUpIterations, testIterations, windowBits);
+    }
+
+    private static void run(BigInteger base, BigInteger modulus, BigInteger order, BigInteger exponentBound,
+                            int nExponentiations, int warmUpIterations, int testIterations, int windowBits) {
+        BigInteger[] exponents = new BigInteger[nExponentiations];
+        for (int i = 0; i < nExponentiations; i++) {
+            exponents[i] = new BigInteger(exponentBound.bitLength() - 1, rndGenerator);
+        }
+        long start = System.nanoTime();
+        FixedBaseExponentiation fixedBase = new FixedBaseExponentiation(base, modulus, order, windowBits);
+        fixedBase.pow(BigInteger.ONE);
+        long end = System.nanoTime();
+        System.out.println("Table precomputation: " + (end - start) / 1000000.0 + " ms");
+
+        for (BigInteger exponent : exponents) {
+            if (!fixedBase.pow(exponent).equals(base.modPow(exponent, modulus))) {
+                throw new IllegalStateException("Fixed base exponentiation result differs from modPow");
+            }
+        }
+
+        System.out.println("Warming up (" + warmUpIterations + " iterations)");
+        if (warmUpIterations > 0) {
+            runTests(warmUpIterations, false, base, modulus, fixedBase, exponents);
+        }
+        System.out.println("Running test (" + testIterations + " iterations)");
+        if (testIterations > 0) {
+            runTests(testIterations, true, base, modulus, fixedBase, exponents);
+        }
+    }
+
+    private static void runTests(int nTests, boolean printResults, BigInteger base, BigInteger modulus,
+                                 FixedBaseExponentiation fixedBase, BigInteger[] exponents) {
+        long[] modPowTimes = new long[nTests];
+        long[] fixedBaseTimes = new long[nTests];
+        int sink = 0;
+        for (int nT = 0; nT < nTests; nT++) {
+            long start = System.nanoTime();
+            for (BigInteger exponent : exponents) {
+                sink ^= base.modPow(exponent, modulus).intValue();
+            }
+            long end = System.nanoTime();
+            modPowTimes[nT] = end - start;
+
+            start = System.nanoTime();
+            for (BigInteger exponent : exponents) {
+                sink ^= fixedBase.pow(exponent).intValue();
+            }
+            end = System.nanoTime();
+            fixedBaseTimes[nT] = end - start;
+        }
+        blackhole = sink;
+        if (printResults) {
+            double modPowAvg = computeAverage(modPowTimes);
+            double fixedBaseAvg = computeAverage(fixedBaseTimes);
+            System.out.println("modPow: " + modPowAvg + " ms");
+            System.out.println("Fixed base: " + fixedBaseAvg + " ms");
+            System.out.println("Speedup: " + modPowAvg / fixedBaseAvg);
+        }
+    }
+
+    private static double computeAverage(long[] values) {
+        return Arrays.stream(values).sum() / (double)values.length / 1000000.0;
+    }
+}
@@ -0,0 +1,138 @@
+package vssr.benchmark;
+
+import bftsmart.reconfiguration.views.View;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import vss.facade.SecretSharingException;
+import vss.secretsharing.VerifiableShare;
+import vssr.Configuration;
+import vssr.ExtractedResponse;
+import vssr.VSSRPublishedShares;
+import vssr.client.ClientConfidentialityScheme;
+import vssr.client.EncryptedServersResponseHandler;
+import vssr.encrypted.EncryptedConfidentialData;
+import vssr.encrypted.EncryptedConfidentialMessage;
+import vssr.encrypted.EncryptedVerifiableShare;
+import vssr.encrypted.ReplyDigest;
+import vssr.server.ServerConfidentialityScheme;
+
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Measures the client-side processing of the replies to a getAll over a map with many entries: comparison of the
+ * replies, followed by their deserialization and the decryption and reconstruction of every entry. Replies are built locally
+ * as the servers would build them. The number of reconstruction threads is cobra.client.reconstruction_threads.
+ */
+public class GetAllReconstructionBenchmark {
+    private static final int clientId = 1000;
+
+    public static void main(String[] args) throws SecretSharingException {
+        if (args.length != 5) {
+            System.out.println("USAGE: ... vssr.benchmark.GetAllReconstructionBenchmark <threshold> <num entries> <num distinct secrets> <warm up iterations> <test iterations>");
+            System.exit(-1);
+        }
+        int threshold = Integer.parseInt(args[0]);
+        int nEntries = Integer.parseInt(args[1]);
+        int nDistinctSecrets = Math.min(nEntries, Integer.parseInt(args[2]));
+        int warmUpIterations = Integer.parseInt(args[3]);
+        int testIterations = Integer.parseInt(args[4]);
+        int n = 3 * threshold + 1;
+        int quorum = 2 * threshold + 1;
+        System.out.println("t = " + threshold);
+        System.out.println("n = " + n);
+        System.out.println("number of entries = " + nEntries);
+        System.out.println("reconstruction threads = " + Configuration.getInstance().getClientReconstructionThreads());
+        System.out.println();
+        int[] servers = new int[n];
+        InetSocketAddress[] inetSocketAddresses = new InetSocketAddress[n];
+        for (int i = 0; i < n; ++i) {
+            inetSocketAddresses[servers[i] = i] = new InetSocketAddress(2);
+        }
+        View view = new View(100, servers, threshold, inetSocketAddresses);
+        ClientConfidentialityScheme clientConfidentialityScheme = new ClientConfidentialityScheme(view);
+        ServerConfidentialityScheme[] serverConfidentialitySchemes = new ServerConfidentialityScheme[n];
+        for (int j = 0; j < n; ++j) {
+            serverConfidentialitySchemes[j] = new ServerConfidentialityScheme(j, view);
+        }
+
+        //entries reuse a few shared secrets, which costs the same to reconstruct as distinct ones
+        SecureRandom rndGenerator = new SecureRandom("ola".getBytes());
+        EncryptedConfidentialData[][] distinctShares = new EncryptedConfidentialData[quorum][nDistinctSecrets];
+        for (int s = 0; s < nDistinctSecrets; s++) {
+            byte[] secret = new byte[1024];
+            rndGenerator.nextBytes(secret);
+            VSSRPublishedShares publishedShares = clientConfidentialityScheme.share(secret);
+            for (int j = 0; j < quorum; j++) {
+                ServerConfidentialityScheme server = serverConfidentialitySchemes[j];
+                VerifiableShare share = server.extractShare(publishedShares).getShareAtIndex(0);
+                byte[] encryptedShare = server.encryptShareFor(clientId, share.getShare());
+                distinctShares[j][s] = new EncryptedConfidentialData(new EncryptedVerifiableShare(
+                        share.getShare().getShareholder(), encryptedShare, share.getCommitments(),
+                        share.getSharedData()));
+            }
+        }
+        TOMMessage[] replies = new TOMMessage[n];
+        for (int j = 0; j < quorum; j++) {
+            EncryptedConfidentialData[] allValues = new EncryptedConfidentialData[nEntries];
+            for (int e = 0; e < nEntries; e++) {
+                allValues[e] = distinctShares[j][e % nDistinctSecrets];
+            }
+            byte[] digest = ReplyDigest.compute(null, allValues);
+            byte[] content = new EncryptedConfidentialMessage(null, allValues).withDigest(digest).serialize();
+            replies[j] = new TOMMessage(j, 0, 0, 0, content, 0, TOMMessageType.ORDERED_REQUEST);
+        }
+        EncryptedServersResponseHandler responseHandler = new EncryptedServersResponseHandler(clientId);
+        responseHandler.setClientConfidentialityScheme(clientConfidentialityScheme);
+
+        System.out.println("Warming up (" + warmUpIterations + " iterations)");
+        if (warmUpIterations > 0) {
+            runTests(warmUpIterations, false, nEntries, quorum, replies, responseHandler);
+        }
+        System.out.println("Running test (" + testIterations + " iterations)");
+        if (testIterations > 0) {
+            runTests(testIterations, true, nEntries, quorum, replies, responseHandler);
+        }
+        clientConfidentialityScheme.close();
+    }
+
+    private static void runTests(int nTests, boolean printResults, int nEntries, int quorum, TOMMessage[] replies,
+                                 EncryptedServersResponseHandler responseHandler) {
+        long[] comparisonTimes = new long[nTests];
+        long[] reconstructionTimes = new long[nTests];
+        for (int nT = 0; nT < nTests; nT++) {
+            responseHandler.reset();
+            long start = System.nanoTime();
+            for (int j = 1; j < quorum; j++) {
+                if (responseHandler.compare(replies[0].getContent(), replies[j].getContent()) != 0) {
+                    throw new IllegalStateException("Replies do not match");
+                }
+            }
+            long end = System.nanoTime();
+            comparisonTimes[nT] = end - start;
+
+            start = System.nanoTime();
+            responseHandler.extractResponse(replies, quorum, quorum - 1);
+            ExtractedResponse extractedResponse = responseHandler.takeExtractedResponse();
+            end = System.nanoTime();
+            reconstructionTimes[nT] = end - start;
+            if (extractedResponse == null || extractedResponse.getThrowable() != null
+                    || extractedResponse.getConfidentialData().length != nEntries) {
+                throw new IllegalStateException("Failed to reconstruct the entries");
+            }
+        }
+        if (printResults) {
+            double comparisonAvg = computeAverage(comparisonTimes);
+            double reconstructionAvg = computeAverage(reconstructionTimes);
+            System.out.println("Reply comparison: " + comparisonAvg + " ms");
+            System.out.println("Deserialization and reconstruction: " + reconstructionAvg + " ms ("
+                    + (nEntries * 1000.0 / reconstructionAvg) + " entries/s)");
+            System.out.println("Total: " + (comparisonAvg + reconstructionAvg) + " ms");
+        }
+    }
+
+    private static double computeAverage(long[] values) {
+        return Arrays.stream(values).sum() / (double)values.length / 1000000.0;
+    }
+}
@@ -42,7 +42,7 @@ public class PreComputedProxy {
             this.serversResponseHandler = new PreComputedEncryptedServersResponseHandler(clientId, false);
         }
         this.service = new ServiceProxy(clientId, null, this.serversResponseHandler, this.serversResponseHandler, null);
-        this.confidentialityScheme = new ClientConfidentialityScheme(this.service.getViewManager().getCurrentView());
+        this.confidentialityScheme = ClientConfidentialityScheme.getShared(this.service.getViewManager().getCurrentView());
         this.serversResponseHandler.setClientConfidentialityScheme(this.confidentialityScheme);
         this.isLinearCommitmentScheme = this.confidentialityScheme.isLinearCommitmentScheme();
     }
@@ -58,7 +58,7 @@ public class PreComputedProxy {
             this.serversResponseHandler = new PreComputedEncryptedServersResponseHandler(clientId, true);
         }
         this.service = new ServiceProxy(clientId, null, this.serversResponseHandler, this.serversResponseHandler, null);
-        this.confidentialityScheme = new ClientConfidentialityScheme(this.service.getViewManager().getCurrentView());
+        this.confidentialityScheme = ClientConfidentialityScheme.getShared(this.service.getViewManager().getCurrentView());
         this.serversResponseHandler.setClientConfidentialityScheme(this.confidentialityScheme);
         this.isLinearCommitmentScheme = this.confidentialityScheme.isLinearCommitmentScheme();
         this.unorderedCommonData = unorderedCommonData;
@@ -131,6 +131,7 @@ public class PreComputedProxy {
     }
 
     public void close() {
+        confidentialityScheme.close();
         service.close();
     }
 
@@ -172,8 +173,10 @@ public class PreComputedProxy {
             }
             out.flush();
             bos.flush();
-            return bos.toByteArray();
-        } catch (IOException e) {
+            byte[] serializedShares = bos.toByteArray();
+            return confidentialityScheme.isBulkShareEncryption()
+                    ? confidentialityScheme.encryptSharesFor(server, serializedShares) : serializedShares;
+        } catch (IOException | SecretSharingException e) {
             this.logger.error("Occurred while composing request", e);
             return null;
         }
@@ -225,10 +228,6 @@ public class PreComputedProxy {
         if (privateData == null) {
             return null;
         }
-        VSSRPublishedShares[] result = new VSSRPublishedShares[privateData.length];
-        for (int i = 0; i < privateData.length; ++i) {
-            result[i] = confidentialityScheme.share(privateData[i]);
-        }
-        return result;
+        return confidentialityScheme.shareAll(privateData);
     }
 }
@@ -0,0 +1,146 @@
+package vssr.benchmark;
+
+import bftsmart.reconfiguration.views.View;
+import vss.facade.SecretSharingException;
+import vssr.RecoveryContribution;
+import vssr.VSSRPublishedShares;
+import vssr.VSSRShare;
+import vssr.client.ClientConfidentialityScheme;
+import vssr.server.ServerConfidentialityScheme;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how recovery share generation and share recovery throughput scale with the number of share
+ * processing threads.
+ */
+public class RecoveryScalingBenchmark {
+    private static int n;
+    private static final int recoveryShareholderIndex = 0;
+
+    public static void main(String[] args) throws SecretSharingException, InterruptedException {
+        if (args.length != 5) {
+            System.out.println("USAGE: ... vssr.benchmark.RecoveryScalingBenchmark <threshold> <num secrets> <warm up iterations> <test iterations> <max processing threads>");
+            System.exit(-1);
+        }
+        int threshold = Integer.parseInt(args[0]);
+        int nSecrets = Integer.parseInt(args[1]);
+        int warmUpIterations = Integer.parseInt(args[2]);
+        int testIterations = Integer.parseInt(args[3]);
+        int maxThreads = Integer.parseInt(args[4]);
+        n = 3 * threshold + 1;
+        System.out.println("t = " + threshold);
+        System.out.println("n = " + n);
+        System.out.println("number of secrets = " + nSecrets);
+        System.out.println("available processors = " + Runtime.getRuntime().availableProcessors());
+        System.out.println();
+        int[] servers = new int[n];
+        InetSocketAddress[] inetSocketAddresses = new InetSocketAddress[n];
+        for (int i = 0; i < n; ++i) {
+            inetSocketAddresses[servers[i] = i] = new InetSocketAddress(2);
+        }
+        View view = new View(100, servers, threshold, inetSocketAddresses);
+        ClientConfidentialityScheme clientConfidentialityScheme = new ClientConfidentialityScheme(view);
+        ServerConfidentialityScheme[] serverConfidentialitySchemes = new ServerConfidentialityScheme[n];
+        for (int j = 0; j < n; ++j) {
+            serverConfidentialitySchemes[j] = new ServerConfidentialityScheme(j, view);
+        }
+
+        SecureRandom rndGenerator = new SecureRandom("ola".getBytes());
+        byte[] secret = new byte[1024];
+        rndGenerator.nextBytes(secret);
+        VSSRShare[][] allShares = new VSSRShare[nSecrets][n];
+        for (int nS = 0; nS < nSecrets; ++nS) {
+            VSSRPublishedShares privateShares = clientConfidentialityScheme.share(secret);
+            for (int i = 0; i < n; ++i) {
+                if (i != recoveryShareholderIndex) {
+                    allShares[nS][i] = serverConfidentialitySchemes[i].extractShare(privateShares);
+                }
+            }
+        }
+        clientConfidentialityScheme.close();
+
+        for (int nThreads = 1; nThreads <= maxThreads; nThreads *= 2) {
+            System.out.println("Threads: " + nThreads);
+            System.out.println("Warming up (" + warmUpIterations + " iterations)");
+            if (warmUpIterations > 0) {
+                runTests(warmUpIterations, false, nThreads, allShares, serverConfidentialitySchemes);
+            }
+            System.out.println("Running test (" + testIterations + " iterations)");
+            if (testIterations > 0) {
+                runTests(testIterations, true, nThreads, allShares, serverConfidentialitySchemes);
+            }
+            System.out.println();
+        }
+    }
+
+    private static void runTests(int nTests, boolean printResults, int nThreads, VSSRShare[][] allShares,
+                                 ServerConfidentialityScheme[] serverConfidentialitySchemes) throws InterruptedException {
+        int nSecrets = allShares.length;
+        long[] recoveryShareGenerationTimes = new long[nTests];
+        long[] shareRecoveryTimes = new long[nTests];
+        ExecutorService executorService = Executors.newFixedThreadPool(nThreads);
+        ServerConfidentialityScheme recoveringScheme = serverConfidentialitySchemes[recoveryShareholderIndex];
+        BigInteger recoveringShareholder = recoveringScheme.getMyShareholderId();
+        for (int nT = 0; nT < nTests; ++nT) {
+            RecoveryContribution[][] allContributions = new RecoveryContribution[nSecrets][n - 1];
+            CountDownLatch generationLatch = new CountDownLatch(nSecrets);
+            long start = System.nanoTime();
+            for (int nS = 0; nS < nSecrets; ++nS) {
+                int finalNS = nS;
+                executorService.execute(() -> {
+                    int k = 0;
+                    for (int j = 0; j < n; ++j) {
+                        if (j != recoveryShareholderIndex) {
+                            allContributions[finalNS][k++] = serverConfidentialitySchemes[j].recoveryContribution(
+                                    allShares[finalNS][j], recoveringShareholder);
+                        }
+                    }
+                    generationLatch.countDown();
+                });
+            }
+            generationLatch.await();
+            long end = System.nanoTime();
+            recoveryShareGenerationTimes[nT] = end - start;
+
+            CountDownLatch recoveryLatch = new CountDownLatch(nSecrets);
+            start = System.nanoTime();
+            for (int nS = 0; nS < nSecrets; ++nS) {
+                int finalNS = nS;
+                executorService.execute(() -> {
+                    try {
+                        if (recoveringScheme.recoverShare(allContributions[finalNS]) == null) {
+                            throw new IllegalStateException("Recovered share is null");
+                        }
+                    } catch (SecretSharingException e) {
+                        throw new IllegalStateException("Failed to recover share", e);
+                    } finally {
+                        recoveryLatch.countDown();
+                    }
+                });
+            }
+            recoveryLatch.await();
+            end = System.nanoTime();
+            shareRecoveryTimes[nT] = end - start;
+        }
+        executorService.shutdown();
+        if (printResults) {
+            double generationAvg = computeAverage(recoveryShareGenerationTimes);
+            double recoveryAvg = computeAverage(shareRecoveryTimes);
+            System.out.println("Recovery share generation: " + generationAvg + " ms ("
+                    + (nSecrets * 1000.0 / generationAvg) + " secrets/s)");
+            System.out.println("Share recovery: " + recoveryAvg + " ms ("
+                    + (nSecrets * 1000.0 / recoveryAvg) + " secrets/s)");
+        }
+    }
+
+    private static double computeAverage(long[] values) {
+        return Arrays.stream(values).sum() / (double)values.length / 1000000.0;
+    }
+}
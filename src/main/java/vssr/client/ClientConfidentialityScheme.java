@@ -4,13 +4,13 @@ import bftsmart.reconfiguration.views.View;
 import vss.commitment.Commitment;
 import vss.facade.Mode;
 import vss.facade.SecretSharingException;
+import vss.facade.VSSFacade;
 import vss.polynomial.Polynomial;
 import vss.secretsharing.OpenPublishedShares;
 import vss.secretsharing.Share;
+import vssr.Configuration;
 import vssr.VSSRConfidentialityScheme;
 import vssr.VSSRPublishedShares;
-import vssr.dprf.DPRFContribution;
-import vssr.dprf.DPRFPrivateParameters;
 import vssr.encrypted.EncryptedShare;
 
 import javax.crypto.BadPaddingException;
@@ -21,42 +21,172 @@ import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ClientConfidentialityScheme extends VSSRConfidentialityScheme {
+	private static final Map<String, ClientConfidentialityScheme> sharedSchemes = new HashMap<>();
 	private final int[] servers;
+	private final BigInteger[] shareholders;
 	private final int l;
-	private final MessageDigest messageDigest;
+	private final int randomPointBits;
+	private final ThreadLocal<MessageDigest> messageDigest;
+	private final ThreadLocal<SecureRandom> rndGenerator;
+	private final ThreadLocal<VSSFacade> sharingVss;
+	private final String dataEncryptionAlgorithm;
+	private final SharingKitPool sharingKitPool;
+	private final ForkJoinPool sharingPool;
+	private final ForkJoinPool reconstructionPool;
+	private final String sharedKey;
+	private int references; //guarded by sharedSchemes
+	//constant commitments keep verification state and use native pairing code, so their scheme is not thread safe
+	private final ReentrantLock commitmentSchemeLock;
 
 	public ClientConfidentialityScheme(View view) throws SecretSharingException {
+		this(view, null);
+	}
+
+	private ClientConfidentialityScheme(View view, String sharedKey) throws SecretSharingException {
 		super(view);
+		this.sharedKey = sharedKey;
+		this.references = 1;
+		this.commitmentSchemeLock = isLinearCommitmentScheme() ? null : new ReentrantLock();
 		int[] currentViewProcesses = view.getProcesses();
 		int n = view.getN();
 		this.servers = currentViewProcesses;
+		this.shareholders = new BigInteger[servers.length];
+		for (int i = 0; i < servers.length; ++i) {
+			shareholders[i] = getShareholder(servers[i]);
+		}
 		this.l = (int)Math.ceil(n / (double)this.f);
 		try {
-			this.messageDigest = MessageDigest.getInstance("SHA-256");
+			MessageDigest.getInstance("SHA-256");
 		}
 		catch (NoSuchAlgorithmException e) {
 			throw new SecretSharingException("Failed to initialize message digest", e);
 		}
+		this.messageDigest = ThreadLocal.withInitial(() -> {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("Failed to initialize message digest", e);
+			}
+		});
+		this.rndGenerator = ThreadLocal.withInitial(SecureRandom::new);
+		this.sharingVss = new ThreadLocal<>();
+		Configuration configuration = Configuration.getInstance();
+		if (isLinearCommitmentScheme()) {
+			//the commitments are raised to the powers of the random point without reducing them modulo the group
+			//order, so x^f must stay below the prime field for honest polynomials to pass the check
+			int primeFieldBits = new BigInteger(configuration.getPrimeField(), 16).bitLength();
+			this.randomPointBits = Math.min(vss.getField().bitLength() - 1, (primeFieldBits - 1) / f);
+		}
+		else {
+			this.randomPointBits = 0;
+		}
+		this.dataEncryptionAlgorithm = configuration.getDataEncryptionAlgorithm();
+		int nSharingThreads = configuration.getClientSharingThreads();
+		this.sharingPool = nSharingThreads > 1 ? new ForkJoinPool(nSharingThreads) : null;
+		int nReconstructionThreads = configuration.getClientReconstructionThreads();
+		this.reconstructionPool = nReconstructionThreads > 1 ? new ForkJoinPool(nReconstructionThreads) : null;
+		int nKits = configuration.getPrecomputedSharingKits();
+		this.sharingKitPool = nKits > 0 ? new SharingKitPool(this, nKits, configuration.getPrecomputationThreads()) : null;
+	}
+
+	/**
+	 * Returns the scheme shared by all clients of this process that use the given view, creating it on first use.
+	 * The scheme holds no per-client state, so building it once avoids repeating the key parsing and DPRF setup for
+	 * each client. Each call must be matched by a call to {@link #close()}.
+	 */
+	public static ClientConfidentialityScheme getShared(View view) throws SecretSharingException {
+		String key = view.getId() + ":" + view.getF() + ":" + Arrays.toString(view.getProcesses());
+		synchronized (sharedSchemes) {
+			ClientConfidentialityScheme scheme = sharedSchemes.get(key);
+			if (scheme == null) {
+				scheme = new ClientConfidentialityScheme(view, key);
+				sharedSchemes.put(key, scheme);
+			}
+			else {
+				scheme.references++;
+			}
+			return scheme;
+		}
+	}
+
+	/**
+	 * Shares each secret, in parallel when the sharing pool is enabled.
+	 */
+	public VSSRPublishedShares[] shareAll(byte[]... secrets) throws SecretSharingException {
+		List<Callable<VSSRPublishedShares>> tasks = new ArrayList<>(secrets.length);
+		for (byte[] secret : secrets) {
+			tasks.add(() -> share(secret));
+		}
+		return invokeAll(sharingPool, tasks).toArray(new VSSRPublishedShares[0]);
 	}
 
 	public VSSRPublishedShares share(byte[] secret) throws SecretSharingException {
+		SharingKit kit = sharingKitPool == null ? null : sharingKitPool.poll();
+		if (kit == null) {
+			kit = computeSharingKit();
+		}
+		Commitment[] commitments = kit.getCommitments();
+		EncryptedShare[][] encryptedShares = kit.getEncryptedShares();
+		OpenPublishedShares secretShare = shareSecret(secret);
+		commitments[0] = secretShare.getCommitments();
+		encryptedShares[0] = encryptShares(secretShare.getShares());
+		return new VSSRPublishedShares(kit.getR(), encryptedShares, commitments, secretShare.getSharedData());
+	}
+
+	/**
+	 * VSSFacade.share uses one digest and random generator without locking. With linear commitments each thread shares
+	 * with its own facade. Constant commitments use native pairing code whose state is global to the process, so a
+	 * facade per thread would initialize it again, and their secrets are shared with the scheme's facade under the
+	 * commitment scheme lock.
+	 */
+	private OpenPublishedShares shareSecret(byte[] secret) throws SecretSharingException {
+		if (commitmentSchemeLock == null) {
+			return getSharingVss().share(secret, Mode.LARGE_SECRET, f);
+		}
+		commitmentSchemeLock.lock();
+		try {
+			return vss.share(secret, Mode.LARGE_SECRET, f);
+		}
+		finally {
+			commitmentSchemeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the calling thread's facade for sharing secrets with linear commitments.
+	 */
+	private VSSFacade getSharingVss() throws SecretSharingException {
+		VSSFacade facade = sharingVss.get();
+		if (facade == null) {
+			facade = createVSSFacade();
+			sharingVss.set(facade);
+		}
+		return facade;
+	}
+
+	SharingKit computeSharingKit() throws SecretSharingException {
 		BigInteger r = dprfScheme.getRandomNumber();
-		BigInteger[] yi = new BigInteger[servers.length];
-		for (int i = 0; i < servers.length; ++i) {
-			BigInteger shareholder = getShareholder(servers[i]);
-			DPRFContribution[] contributes = new DPRFContribution[servers.length];
-			for (int j = 0; j < servers.length; ++j) {
-				BigInteger s = getShareholder(servers[j]);
-				DPRFPrivateParameters privateParameters = dprfParameters.getPrivateParameterOf(s);
-				contributes[j] = dprfScheme.contribute(s, privateParameters, r, shareholder);
-			}
-			yi[i] = dprfScheme.evaluate(dprfParameters.getPublicParameters(), shareholder, contributes).mod(vss.getField());
+		List<Callable<BigInteger>> dprfTasks = new ArrayList<>(servers.length);
+		for (BigInteger shareholder : shareholders) {
+			dprfTasks.add(() -> dprfScheme.dealerEvaluate(dprfParameters, shareholder, shareholders).mod(vss.getField()));
 		}
-		Commitment[] commitments = new Commitment[l + 1];
-		EncryptedShare[][] encryptedShares = new EncryptedShare[l + 1][];
+		BigInteger[] yi = invokeAll(sharingPool, dprfTasks).toArray(new BigInteger[0]);
+		List<Callable<OpenPublishedShares>> recoveryPointTasks = new ArrayList<>(l);
 		for (int k = 1; k <= l; ++k) {
 			LinkedList<Share> shares = new LinkedList<>();
 			for (int min = Math.min(k * f, yi.length), l = (k - 1) * f; l < min; ++l) {
@@ -69,22 +199,99 @@ public class ClientConfidentialityScheme extends VSSRConfidentialityScheme {
 					shares.add(new Share(rndNumb, rndNumb));
 				}
 			}
-			OpenPublishedShares recoveryShares = shareRecoveryPoint(shares.toArray(new Share[0]));
-			commitments[k] = recoveryShares.getCommitments();
-			encryptedShares[k] = encryptShares(recoveryShares.getShares());
+			recoveryPointTasks.add(() -> shareRecoveryPoint(shares.toArray(new Share[0])));
+		}
+		List<OpenPublishedShares> recoveryShares = invokeAll(sharingPool, recoveryPointTasks);
+		Commitment[] commitments = new Commitment[l + 1];
+		EncryptedShare[][] encryptedShares = new EncryptedShare[l + 1][];
+		for (int k = 1; k <= l; ++k) {
+			commitments[k] = recoveryShares.get(k - 1).getCommitments();
+			encryptedShares[k] = encryptShares(recoveryShares.get(k - 1).getShares());
 		}
+		return new SharingKit(r, commitments, encryptedShares);
+	}
 
-		OpenPublishedShares secretShare = vss.share(secret, Mode.LARGE_SECRET, f);
-		commitments[0] = secretShare.getCommitments();
-		encryptedShares[0] = encryptShares(secretShare.getShares());
-		return new VSSRPublishedShares(r, encryptedShares, commitments, secretShare.getSharedData());
+	/**
+	 * Runs the reconstruction of each secret of a response, in parallel when the reconstruction pool is enabled.
+	 * Results are in the order of the tasks.
+	 */
+	public byte[][] reconstructAll(List<Callable<byte[]>> reconstructions) throws SecretSharingException {
+		return invokeAll(reconstructionPool, reconstructions).toArray(new byte[0][]);
 	}
 
+	/**
+	 * Runs the tasks in the given pool, or in the calling thread if the pool is disabled. Tasks submitted from
+	 * within the pool are forked to the same pool, so nested fan-outs do not block workers.
+	 */
+	private <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws SecretSharingException {
+		List<T> result = new ArrayList<>(tasks.size());
+		if (pool == null || tasks.size() == 1) {
+			try {
+				for (Callable<T> task : tasks) {
+					result.add(task.call());
+				}
+			}
+			catch (SecretSharingException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new SecretSharingException("Error while processing shares.", e);
+			}
+			return result;
+		}
+		List<ForkJoinTask<T>> futures = new ArrayList<>(tasks.size());
+		for (Callable<T> task : tasks) {
+			futures.add(pool.submit(task));
+		}
+		try {
+			for (ForkJoinTask<T> future : futures) {
+				result.add(future.get());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SecretSharingException("Interrupted while processing shares.", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof SecretSharingException) {
+				throw (SecretSharingException)e.getCause();
+			}
+			throw new SecretSharingException("Error while processing shares.", e.getCause());
+		}
+		return result;
+	}
+
+	public void close() {
+		if (sharedKey != null) {
+			synchronized (sharedSchemes) {
+				if (--references > 0) {
+					return;
+				}
+				sharedSchemes.remove(sharedKey);
+			}
+		}
+		if (sharingKitPool != null) {
+			sharingKitPool.shutdown();
+		}
+		if (sharingPool != null) {
+			sharingPool.shutdown();
+		}
+		if (reconstructionPool != null) {
+			reconstructionPool.shutdown();
+		}
+	}
+
+	/**
+	 * With bulk share encryption, shares are kept in clear here and encrypted per server when the request is
+	 * serialized.
+	 */
 	private EncryptedShare[] encryptShares(Share[] shares) throws SecretSharingException {
 		EncryptedShare[] result = new EncryptedShare[shares.length];
+		boolean isBulkShareEncryption = isBulkShareEncryption();
 		for (int i = 0; i < shares.length; i++) {
 			Share share = shares[i];
-			byte[] es = encryptShareFor(getProcess(share.getShareholder()), share);
+			byte[] es = isBulkShareEncryption ? share.getShare().toByteArray()
+					: encryptShareFor(getProcess(share.getShareholder()), share);
 			result[i] = new EncryptedShare(share.getShareholder(), es);
 		}
 		return result;
@@ -97,28 +304,130 @@ public class ClientConfidentialityScheme extends VSSRConfidentialityScheme {
 			BigInteger shareholder = getShareholder(servers[i]);
 			resultingShares[i] = new Share(shareholder, polynomial.evaluateAt(shareholder));
 		}
-		Commitment commitment = vss.getCommitmentScheme().generateCommitments(polynomial);
+		Commitment commitment = generateCommitments(polynomial);
 		return new OpenPublishedShares(resultingShares, commitment, null);
 	}
 
+	/**
+	 * Calls to the commitment scheme go through this scheme, which is used concurrently by the clients sharing it and
+	 * by its sharing and reconstruction pools. Constant commitments are serialized with a lock.
+	 */
+	private Commitment generateCommitments(Polynomial polynomial) {
+		lockCommitmentScheme();
+		try {
+			return vss.getCommitmentScheme().generateCommitments(polynomial);
+		}
+		finally {
+			unlockCommitmentScheme();
+		}
+	}
+
+	public Commitment combineCommitments(Map<BigInteger, Commitment> commitments) {
+		lockCommitmentScheme();
+		try {
+			return vss.getCommitmentScheme().combineCommitments(commitments);
+		}
+		finally {
+			unlockCommitmentScheme();
+		}
+	}
+
+	private void lockCommitmentScheme() {
+		if (commitmentSchemeLock != null) {
+			commitmentSchemeLock.lock();
+		}
+	}
+
+	private void unlockCommitmentScheme() {
+		if (commitmentSchemeLock != null) {
+			commitmentSchemeLock.unlock();
+		}
+	}
+
+	/**
+	 * Optimistically interpolates the first f+1 shares and checks the resulting polynomial against the commitment
+	 * once. Only if that fails are the shares verified one by one, and the secret is recovered from the valid ones.
+	 * Returns null if fewer than f+1 shares are valid.
+	 */
 	public byte[] combine(OpenPublishedShares shares) throws SecretSharingException {
 		Share[] s = shares.getShares();
-		vss.getCommitmentScheme().startVerification(shares.getCommitments());
-		for (Share share : s) {
-			if (!vss.getCommitmentScheme().checkValidity(share, shares.getCommitments())) {
+		Commitment commitment = shares.getCommitments();
+		Polynomial p = null;
+		if (s.length > f) {
+			Share[] optimisticShares = Arrays.copyOf(s, f + 1);
+			Polynomial candidate = new Polynomial(vss.getField(), optimisticShares);
+			if (isCommittedPolynomial(candidate, optimisticShares, commitment)) {
+				p = candidate;
+			}
+			else {
+				logger.debug("Optimistic combine failed. Verifying each share");
+			}
+		}
+		if (p == null) {
+			List<Share> validShares = new ArrayList<>(s.length);
+			lockCommitmentScheme();
+			try {
+				vss.getCommitmentScheme().startVerification(commitment);
+				for (Share share : s) {
+					if (vss.getCommitmentScheme().checkValidity(share, commitment)) {
+						validShares.add(share);
+						if (validShares.size() == f + 1) {
+							break;
+						}
+					}
+				}
 				vss.getCommitmentScheme().endVerification();
+			}
+			finally {
+				unlockCommitmentScheme();
+			}
+			if (validShares.size() <= f) {
 				return null;
 			}
+			p = new Polynomial(vss.getField(), validShares.toArray(new Share[0]));
 		}
-		vss.getCommitmentScheme().endVerification();
-		Polynomial p = new Polynomial(vss.getField(), s);
 		BigInteger secretKeyAsNumber = p.getConstant();
-		byte[] keyBytes = messageDigest.digest(secretKeyAsNumber.toByteArray());
-		SecretKey secretKey = new SecretKeySpec(keyBytes, "AES");
+		byte[] keyBytes = messageDigest.get().digest(secretKeyAsNumber.toByteArray());
+		SecretKey secretKey = new SecretKeySpec(keyBytes, dataEncryptionAlgorithm);
 		try {
 			return decrypt(shares.getSharedData(), secretKey);
 		} catch (InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
 			throw new SecretSharingException("Error while decrypting secret!", e);
 		}
 	}
+
+	/**
+	 * With linear commitments, the polynomial is evaluated at a random point and that single evaluation is checked:
+	 * a polynomial of degree f that differs from the committed one agrees with it on at most f points. Constant
+	 * commitments can only check shareholders' points, so the shares themselves are checked.
+	 */
+	private boolean isCommittedPolynomial(Polynomial polynomial, Share[] shares, Commitment commitment) {
+		if (isLinearCommitmentScheme()) {
+			SecureRandom rnd = rndGenerator.get();
+			BigInteger x;
+			do {
+				x = new BigInteger(randomPointBits, rnd);
+			} while (x.signum() == 0 || Arrays.asList(shareholders).contains(x));
+			Share randomPoint = new Share(x, polynomial.evaluateAt(x));
+			return vss.getCommitmentScheme().checkValidityWithoutPreComputation(randomPoint, commitment);
+		}
+		lockCommitmentScheme();
+		try {
+			vss.getCommitmentScheme().startVerification(commitment);
+			try {
+				for (Share share : shares) {
+					if (!vss.getCommitmentScheme().checkValidity(share, commitment)) {
+						return false;
+					}
+				}
+				return true;
+			}
+			finally {
+				vss.getCommitmentScheme().endVerification();
+			}
+		}
+		finally {
+			unlockCommitmentScheme();
+		}
+	}
 }
@@ -1,6 +1,6 @@
 package vssr.client;
 
-import bftsmart.tom.ServiceProxy;
+import bftsmart.tom.core.messages.TOMMessageType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vss.commitment.Commitment;
@@ -17,55 +17,139 @@ import java.io.ObjectOutputStream;
 import java.math.BigInteger;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class ConfidentialServiceProxy {
 	private final Logger logger;
-	private final ServiceProxy service;
+	private final int clientId;
+	private final PipelinedServiceProxy service;
 	private final ClientConfidentialityScheme confidentialityScheme;
-	private final ServersResponseHandler serversResponseHandler;
 	private final boolean isLinearCommitmentScheme;
+	private final boolean digestReplies;
+	private final boolean optimisticReads;
 
 	public ConfidentialServiceProxy(int clientId) throws SecretSharingException {
 		this.logger = LoggerFactory.getLogger("confidential");
+		this.clientId = clientId;
+		//the scheme is only known once the proxy has read the view
+		ServersResponseHandler serversResponseHandler;
 		if (Configuration.getInstance().useTLSEncryption()) {
-			this.serversResponseHandler = new PlainServersResponseHandler();
+			serversResponseHandler = new PlainServersResponseHandler();
 		}
 		else {
-			this.serversResponseHandler = new EncryptedServersResponseHandler(clientId);
+			serversResponseHandler = new EncryptedServersResponseHandler(clientId);
 		}
-		this.service = new ServiceProxy(clientId, null, this.serversResponseHandler, this.serversResponseHandler, null);
-		this.confidentialityScheme = new ClientConfidentialityScheme(this.service.getViewManager().getCurrentView());
-		this.serversResponseHandler.setClientConfidentialityScheme(this.confidentialityScheme);
+		this.service = new PipelinedServiceProxy(clientId, serversResponseHandler);
+		this.confidentialityScheme = ClientConfidentialityScheme.getShared(this.service.getViewManager().getCurrentView());
+		serversResponseHandler.setClientConfidentialityScheme(this.confidentialityScheme);
 		this.isLinearCommitmentScheme = this.confidentialityScheme.isLinearCommitmentScheme();
+		this.digestReplies = Configuration.getInstance().isClientDigestReplies()
+				&& !Configuration.getInstance().useTLSEncryption();
+		this.optimisticReads = Configuration.getInstance().isClientOptimisticReads();
 	}
 
 	public Response invokeOrdered(byte[] plainData, byte[]... confidentialData) throws SecretSharingException {
-		serversResponseHandler.reset();
-		VSSRPublishedShares[] shares = sharePrivateData(confidentialData);
-		if (confidentialData.length != 0 && shares == null) {
+		EncodedRequest request = encodeRequest(plainData, confidentialData);
+		if (request == null) {
 			return null;
 		}
-		byte[] commonData = serializeCommonData(plainData, shares);
-		if (commonData == null) {
+		//blocking requests are pipelined too, so concurrent ones need their own handler state
+		ServersResponseHandler requestResponseHandler = createServersResponseHandler();
+		byte[] response = PipelinedServiceProxy.join(service.invokeAsynch(request.commonData, request.privateData,
+				request.metadata, TOMMessageType.ORDERED_REQUEST, requestResponseHandler));
+		return composeResponse(response, requestResponseHandler);
+	}
+
+	public Response invokeUnordered(byte[] plainData, byte[]... confidentialData) throws SecretSharingException {
+		EncodedRequest request = encodeRequest(plainData, confidentialData);
+		if (request == null) {
 			return null;
 		}
-		Map<Integer, byte[]> privateData = null;
-		if (confidentialData.length != 0) {
-			int[] servers = service.getViewManager().getCurrentViewProcesses();
-			privateData = new HashMap<>(servers.length);
-			for (int server : servers) {
-				byte[] b = serializePrivateDataFor(server, shares);
-				privateData.put(server, b);
+		ServersResponseHandler requestResponseHandler = createServersResponseHandler();
+		byte[] response = PipelinedServiceProxy.join(service.invokeAsynch(request.commonData, request.privateData,
+				unorderedMetadata(request), TOMMessageType.UNORDERED_REQUEST, requestResponseHandler, optimisticReads));
+		if (requestResponseHandler.isFullRepliesRequired()) {
+			logger.debug("Repeating unordered request with full replies");
+			response = PipelinedServiceProxy.join(service.invokeAsynch(request.commonData, request.privateData,
+					request.metadata, TOMMessageType.UNORDERED_REQUEST, requestResponseHandler));
+		}
+		return composeResponse(response, requestResponseHandler);
+	}
+
+	/**
+	 * Sends the request without waiting for its response, so several requests can be in flight at once. The future
+	 * completes with null if the request fails to be composed or times out, and exceptionally if the servers reply
+	 * with an error. Responses are composed in the proxy's response threads, which also run dependent actions that are
+	 * not asynchronous.
+	 */
+	public CompletableFuture<Response> invokeOrderedAsync(byte[] plainData, byte[]... confidentialData) {
+		return invokeAsync(TOMMessageType.ORDERED_REQUEST, plainData, confidentialData);
+	}
+
+	/**
+	 * Unordered counterpart of {@link #invokeOrderedAsync(byte[], byte[]...)}. Requests whose replies do not match
+	 * are retried as ordered.
+	 */
+	public CompletableFuture<Response> invokeUnorderedAsync(byte[] plainData, byte[]... confidentialData) {
+		return invokeAsync(TOMMessageType.UNORDERED_REQUEST, plainData, confidentialData);
+	}
+
+	private CompletableFuture<Response> invokeAsync(TOMMessageType requestType, byte[] plainData,
+													   byte[]... confidentialData) {
+		EncodedRequest request;
+		try {
+			request = encodeRequest(plainData, confidentialData);
+		} catch (SecretSharingException e) {
+			CompletableFuture<Response> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		if (request == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		//each request extracts its response with its own handler state
+		ServersResponseHandler requestResponseHandler = createServersResponseHandler();
+		byte metadata = requestType == TOMMessageType.UNORDERED_REQUEST ? unorderedMetadata(request) : request.metadata;
+		return service.invokeAsynch(request.commonData, request.privateData, metadata, requestType,
+				requestResponseHandler, optimisticReads).thenComposeAsync(response -> {
+			if (!requestResponseHandler.isFullRepliesRequired()) {
+				return CompletableFuture.completedFuture(response);
+			}
+			logger.debug("Repeating unordered request with full replies");
+			return service.invokeAsynch(request.commonData, request.privateData, request.metadata, requestType,
+					requestResponseHandler);
+		}, service.getResponseExecutor()).thenApplyAsync(response -> {
+			try {
+				return composeResponse(response, requestResponseHandler);
+			} catch (SecretSharingException e) {
+				throw new CompletionException(e);
 			}
+		}, service.getResponseExecutor());
+	}
+
+	/**
+	 * Digest replies are only asked for in unordered requests, as a request whose designated server does not reply
+	 * in full is executed again.
+	 */
+	private byte unorderedMetadata(EncodedRequest request) {
+		return digestReplies ? Metadata.withDigestReplies(request.metadata) : request.metadata;
+	}
+
+	private ServersResponseHandler createServersResponseHandler() {
+		ServersResponseHandler handler;
+		if (Configuration.getInstance().useTLSEncryption()) {
+			handler = new PlainServersResponseHandler();
 		}
-		byte metadata = (byte)((privateData == null) ? Metadata.DOES_NOT_VERIFY.ordinal() : Metadata.VERIFY.ordinal());
-		byte[] response = service.invokeOrdered(commonData, privateData, metadata);
-		return composeResponse(response);
+		else {
+			handler = new EncryptedServersResponseHandler(clientId);
+		}
+		handler.setClientConfidentialityScheme(confidentialityScheme);
+		return handler;
 	}
 
-	public Response invokeUnordered(byte[] plainData, byte[]... confidentialData) throws SecretSharingException {
-		serversResponseHandler.reset();
-		VSSRPublishedShares[] shares = this.sharePrivateData(confidentialData);
+	private EncodedRequest encodeRequest(byte[] plainData, byte[]... confidentialData) throws SecretSharingException {
+		VSSRPublishedShares[] shares = sharePrivateData(confidentialData);
 		if (confidentialData.length != 0 && shares == null) {
 			return null;
 		}
@@ -83,19 +167,22 @@ public class ConfidentialServiceProxy {
 			}
 		}
 		byte metadata = (byte)((privateData == null) ? Metadata.DOES_NOT_VERIFY.ordinal() : Metadata.VERIFY.ordinal());
-		byte[] response = service.invokeUnordered(commonData, privateData, metadata);
-		return composeResponse(response);
+		return new EncodedRequest(commonData, privateData, metadata);
 	}
 
 	public void close() {
+		confidentialityScheme.close();
 		service.close();
 	}
 
-	private Response composeResponse(byte[] response) throws SecretSharingException {
+	private Response composeResponse(byte[] response, ServersResponseHandler responseHandler) throws SecretSharingException {
 		if (response == null) {
 			return null;
 		}
-		ExtractedResponse extractedResponse = ExtractedResponse.deserialize(response);
+		ExtractedResponse extractedResponse = responseHandler.takeExtractedResponse();
+		if (extractedResponse == null) {
+			extractedResponse = ExtractedResponse.deserialize(response);
+		}
 		if (extractedResponse == null) {
 			return null;
 		}
@@ -132,8 +219,10 @@ public class ConfidentialServiceProxy {
 			}
 			out.flush();
 			bos.flush();
-			return bos.toByteArray();
-		} catch (IOException e) {
+			byte[] serializedShares = bos.toByteArray();
+			return confidentialityScheme.isBulkShareEncryption()
+					? confidentialityScheme.encryptSharesFor(server, serializedShares) : serializedShares;
+		} catch (IOException | SecretSharingException e) {
 			logger.error("Occurred while composing request", e);
 			return null;
 		}
@@ -185,10 +274,18 @@ public class ConfidentialServiceProxy {
 		if (privateData == null) {
 			return null;
 		}
-		VSSRPublishedShares[] result = new VSSRPublishedShares[privateData.length];
-		for (int i = 0; i < privateData.length; ++i) {
-			result[i] = this.confidentialityScheme.share(privateData[i]);
+		return this.confidentialityScheme.shareAll(privateData);
+	}
+
+	private static class EncodedRequest {
+		private final byte[] commonData;
+		private final Map<Integer, byte[]> privateData;
+		private final byte metadata;
+
+		private EncodedRequest(byte[] commonData, Map<Integer, byte[]> privateData, byte metadata) {
+			this.commonData = commonData;
+			this.privateData = privateData;
+			this.metadata = metadata;
 		}
-		return result;
 	}
 }
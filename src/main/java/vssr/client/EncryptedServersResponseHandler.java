@@ -9,119 +9,189 @@ import vssr.ExtractedResponse;
 import vssr.encrypted.EncryptedConfidentialData;
 import vssr.encrypted.EncryptedConfidentialMessage;
 import vssr.encrypted.EncryptedVerifiableShare;
+import vssr.encrypted.ReplyDigest;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class EncryptedServersResponseHandler extends ServersResponseHandler {
-    private final Map<byte[], EncryptedConfidentialMessage> responses;
-    private final Map<EncryptedConfidentialMessage, Integer> responseHashes;
+    private final Map<byte[], byte[]> digests;
     private final int clientId;
 
     public EncryptedServersResponseHandler(int clientId) {
         this.clientId = clientId;
-        this.responses = new HashMap<>();
-        this.responseHashes = new HashMap<>();
+        //replies are only compared by the digest they carry, so no reply is deserialized before a quorum matches
+        this.digests = new IdentityHashMap<>();
     }
 
     public TOMMessage extractResponse(TOMMessage[] replies, int sameContent, int lastReceived) {
-        Map<Integer, LinkedList<EncryptedConfidentialMessage>> msgs = new HashMap<>();
+        int threshold = confidentialityScheme.getThreshold();
+        byte[] matchingDigest = digestOf(replies[lastReceived].getContent());
+        LinkedList<EncryptedConfidentialMessage> msgList = new LinkedList<>();
         for (TOMMessage msg : replies) {
-            if (msg != null) {
-                EncryptedConfidentialMessage response = responses.get(msg.getContent());
+            if (msg != null && Arrays.equals(matchingDigest, digestOf(msg.getContent()))) {
+                EncryptedConfidentialMessage response = EncryptedConfidentialMessage.deserialize(msg.getContent());
                 if (response == null) {
-                    logger.warn("Something went wrong while getting deserialized response from {}", msg.getSender());
+                    logger.warn("Something went wrong while deserializing response from {}", msg.getSender());
                 }
                 else {
-                    int responseHash = this.responseHashes.get(response);
-                    LinkedList<EncryptedConfidentialMessage> msgList = msgs.computeIfAbsent(responseHash,
-                            k -> new LinkedList<>());
                     msgList.add(response);
                 }
             }
         }
-        for (LinkedList<EncryptedConfidentialMessage> msgList : msgs.values()) {
-            if (msgList.size() == sameContent) {
-                EncryptedConfidentialMessage firstMsg = msgList.getFirst();
-                byte[] plainData = firstMsg.getPlainData();
-                byte[][] confidentialData = null;
-                if (firstMsg.getShares() != null) {
-                    int numSecrets = firstMsg.getShares().length;
-                    ArrayList<LinkedList<EncryptedVerifiableShare>> verifiableShares = new ArrayList<>(numSecrets);
-                    for (int i = 0; i < numSecrets; ++i) {
-                        verifiableShares.add(new LinkedList<>());
-                    }
-                    confidentialData = new byte[numSecrets][];
-                    for (EncryptedConfidentialMessage confidentialMessage : msgList) {
-                        EncryptedConfidentialData[] sharesI = confidentialMessage.getShares();
-                        for (int j = 0; j < numSecrets; ++j) {
-                            verifiableShares.get(j).add(sharesI[j].getShare());
-                        }
-                    }
-                    for (int k = 0; k < numSecrets; ++k) {
-                        LinkedList<EncryptedVerifiableShare> secretI = verifiableShares.get(k);
-                        Share[] shares = new Share[secretI.size()];
-                        Map<BigInteger, Commitment> commitmentsToCombine = new HashMap<>(secretI.size());
-                        byte[] shareData = secretI.getFirst().getSharedData();
-                        int l = 0;
-                        for (EncryptedVerifiableShare verifiableShare : secretI) {
-                            try {
-                                shares[l] = new Share(verifiableShare.getShareholder(),
-                                        confidentialityScheme.decryptShare(clientId, verifiableShare.getShare()));
-                            } catch (SecretSharingException e) {
-                                logger.error("Failed to decrypt share of {}", verifiableShare.getShareholder(), e);
-                            }
-                            commitmentsToCombine.put(verifiableShare.getShareholder(), verifiableShare.getCommitments());
-                            ++l;
-                        }
-                        Commitment commitment = commitmentScheme.combineCommitments(commitmentsToCombine);
-                        OpenPublishedShares secret = new OpenPublishedShares(shares, commitment, shareData);
-                        try {
-                            confidentialData[k] = confidentialityScheme.combine(secret);
-                        } catch (SecretSharingException e) {
-                            ExtractedResponse extractedResponse = new ExtractedResponse(plainData, confidentialData, e);
-                            TOMMessage lastMsg = replies[lastReceived];
-                            return new TOMMessage(lastMsg.getSender(), lastMsg.getSession(), lastMsg.getSequence(),
-                                    lastMsg.getOperationId(), extractedResponse.serialize(), new byte[0],
-                                    lastMsg.getViewID(), lastMsg.getReqType());
-                        }
-                    }
+        if (matchingDigest == null || msgList.size() != sameContent) {
+            logger.error("This should not happen. Did not found {} equivalent responses", sameContent);
+            return null;
+        }
+        EncryptedConfidentialMessage firstMsg = completeReplies(msgList);
+        if (firstMsg == null) {
+            logger.debug("Matching replies do not include a full reply with the digest they carry");
+            return requireFullReplies(replies[lastReceived]);
+        }
+        byte[] plainData = firstMsg.getPlainData();
+        byte[][] confidentialData = null;
+        if (firstMsg.getShares() != null) {
+            int numSecrets = firstMsg.getShares().length;
+            ArrayList<LinkedList<EncryptedVerifiableShare>> verifiableShares = new ArrayList<>(numSecrets);
+            for (int i = 0; i < numSecrets; ++i) {
+                verifiableShares.add(new LinkedList<>());
+            }
+            confidentialData = new byte[numSecrets][];
+            for (EncryptedConfidentialMessage confidentialMessage : msgList) {
+                EncryptedConfidentialData[] sharesI = confidentialMessage.getShares();
+                for (int j = 0; j < numSecrets; ++j) {
+                    verifiableShares.get(j).add(sharesI[j].getShare());
                 }
-                ExtractedResponse extractedResponse2 = new ExtractedResponse(plainData, confidentialData);
-                TOMMessage lastMsg = replies[lastReceived];
-                return new TOMMessage(lastMsg.getSender(), lastMsg.getSession(), lastMsg.getSequence(),
-                        lastMsg.getOperationId(), extractedResponse2.serialize(), new byte[0], lastMsg.getViewID(),
-                        lastMsg.getReqType());
+            }
+            List<Callable<byte[]>> reconstructions = new ArrayList<>(numSecrets);
+            for (LinkedList<EncryptedVerifiableShare> secretI : verifiableShares) {
+                reconstructions.add(() -> reconstructSecret(secretI, threshold));
+            }
+            try {
+                confidentialData = confidentialityScheme.reconstructAll(reconstructions);
+            } catch (SecretSharingException e) {
+                return handOver(replies[lastReceived], new ExtractedResponse(plainData, confidentialData, e));
             }
         }
-        logger.error("This should not happen. Did not found {} equivalent responses", sameContent);
-        return null;
+        return handOver(replies[lastReceived], new ExtractedResponse(plainData, confidentialData));
+    }
+
+    /**
+     * Finds a full reply whose content matches the digest and copies its shared data and common commitments into the
+     * other replies, so that only the shares and per-server commitments of those are used. Returns the full reply, or
+     * null if there is none.
+     */
+    private EncryptedConfidentialMessage completeReplies(LinkedList<EncryptedConfidentialMessage> msgList) {
+        EncryptedConfidentialMessage fullMsg = null;
+        for (EncryptedConfidentialMessage msg : msgList) {
+            if (!msg.isDigestOnly() && Arrays.equals(msg.getDigest(),
+                    ReplyDigest.compute(msg.getPlainData(), msg.getShares()))) {
+                fullMsg = msg;
+                break;
+            }
+        }
+        if (fullMsg == null) {
+            return null;
+        }
+        EncryptedConfidentialData[] fullShares = fullMsg.getShares();
+        int numSecrets = (fullShares == null) ? -1 : fullShares.length;
+        Iterator<EncryptedConfidentialMessage> msgs = msgList.iterator();
+        while (msgs.hasNext()) {
+            EncryptedConfidentialMessage msg = msgs.next();
+            EncryptedConfidentialData[] shares = msg.getShares();
+            if (msg == fullMsg || numSecrets == -1) {
+                continue;
+            }
+            if (shares == null || shares.length != numSecrets) {
+                //a faulty server claimed the digest of another response
+                msgs.remove();
+                continue;
+            }
+            for (int i = 0; i < shares.length; i++) {
+                EncryptedVerifiableShare share = shares[i].getShare();
+                EncryptedVerifiableShare fullShare = fullShares[i].getShare();
+                share.setSharedData(fullShare.getSharedData());
+                if (share.getCommitments() == null || ReplyDigest.isCommonCommitment(fullShare.getCommitments())) {
+                    share.setCommitments(fullShare.getCommitments());
+                }
+            }
+        }
+        return fullMsg;
+    }
+
+    private byte[] reconstructSecret(LinkedList<EncryptedVerifiableShare> secretI, int threshold)
+            throws SecretSharingException {
+        Map<BigInteger, Commitment> commitmentsToCombine = new HashMap<>(secretI.size());
+        byte[] shareData = secretI.getFirst().getSharedData();
+        for (EncryptedVerifiableShare verifiableShare : secretI) {
+            commitmentsToCombine.put(verifiableShare.getShareholder(), verifiableShare.getCommitments());
+        }
+        Commitment commitment = confidentialityScheme.combineCommitments(commitmentsToCombine);
+        //only f+1 shares are decrypted for the optimistic combine, the rest only if it fails
+        Iterator<EncryptedVerifiableShare> encryptedShares = secretI.iterator();
+        List<Share> shares = decryptShares(encryptedShares, threshold + 1);
+        byte[] secret = confidentialityScheme.combine(new OpenPublishedShares(shares.toArray(new Share[0]), commitment,
+                shareData));
+        if (secret == null && encryptedShares.hasNext()) {
+            shares.addAll(decryptShares(encryptedShares, secretI.size()));
+            secret = confidentialityScheme.combine(new OpenPublishedShares(shares.toArray(new Share[0]), commitment,
+                    shareData));
+        }
+        return secret;
+    }
+
+    private List<Share> decryptShares(Iterator<EncryptedVerifiableShare> encryptedShares, int max) {
+        List<Share> shares = new ArrayList<>(max);
+        while (shares.size() < max && encryptedShares.hasNext()) {
+            EncryptedVerifiableShare verifiableShare = encryptedShares.next();
+            try {
+                shares.add(new Share(verifiableShare.getShareholder(),
+                        confidentialityScheme.decryptShare(clientId, verifiableShare.getShare())));
+            } catch (SecretSharingException e) {
+                logger.error("Failed to decrypt share of {}", verifiableShare.getShareholder(), e);
+            }
+        }
+        return shares;
     }
 
     @Override
     public int compare(byte[] o1, byte[] o2) {
-        EncryptedConfidentialMessage response1 = responses.computeIfAbsent(o1, EncryptedConfidentialMessage::deserialize);
-        EncryptedConfidentialMessage response2 = responses.computeIfAbsent(o2, EncryptedConfidentialMessage::deserialize);
-        if (response1 == null && response2 == null) {
+        if (o1 == o2) {
             return 0;
         }
-        if (response1 == null) {
+        byte[] digest1 = digestOf(o1);
+        byte[] digest2 = digestOf(o2);
+        //replies without a readable digest never match
+        if (digest1 == null) {
             return 1;
         }
-        if (response2 == null) {
+        if (digest2 == null) {
             return -1;
         }
-        int hash1 = responseHashes.computeIfAbsent(response1, EncryptedConfidentialMessage::hashCode);
-        int hash2 = responseHashes.computeIfAbsent(response2, EncryptedConfidentialMessage::hashCode);
-        return hash1 - hash2;
+        int length = Math.min(digest1.length, digest2.length);
+        for (int i = 0; i < length; i++) {
+            if (digest1[i] != digest2[i]) {
+                return Byte.compare(digest1[i], digest2[i]);
+            }
+        }
+        return digest1.length - digest2.length;
+    }
+
+    private byte[] digestOf(byte[] reply) {
+        return digests.computeIfAbsent(reply, EncryptedConfidentialMessage::readDigest);
     }
 
     @Override
     public void reset() {
-        responses.clear();
-        responseHashes.clear();
+        super.reset();
+        digests.clear();
     }
 }
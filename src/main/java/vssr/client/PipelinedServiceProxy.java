@@ -0,0 +1,392 @@
+package vssr.client;
+
+import bftsmart.reconfiguration.views.View;
+import bftsmart.tom.ServiceProxy;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.TOMUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vssr.Metadata;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Service proxy that keeps several requests in flight. Each request has its own replies and response handler, and
+ * replies are routed to it by request type and sequence number. Blocking invocations are sent as asynchronous ones and
+ * wait for their future, as {@link ServiceProxy} holds its send lock while waiting for replies, which would block every
+ * other request of the proxy.
+ * <p>
+ * Replies are matched and extracted on response threads shared by all proxies of the process, one reply of a request
+ * at a time, so reconstructing the secrets of a response never delays the delivery of replies to other requests.
+ */
+class PipelinedServiceProxy extends ServiceProxy {
+    private static final Object sharedExecutorsLock = new Object();
+    private static ScheduledExecutorService sharedTimeoutScheduler; //guarded by sharedExecutorsLock
+    private static ExecutorService sharedResponseExecutor; //guarded by sharedExecutorsLock
+    private static int sharedExecutorsReferences; //guarded by sharedExecutorsLock
+    private final Logger logger;
+    private final ServersResponseHandler serversResponseHandler;
+    private final Map<Long, PendingRequest> pendingRequests;
+    //only held while generating the ids of a request and sending it, or while reconfiguring the proxy
+    private final ReentrantLock sendLock;
+    private final ScheduledExecutorService timeoutScheduler;
+    private final ExecutorService responseExecutor;
+
+    PipelinedServiceProxy(int processId, ServersResponseHandler serversResponseHandler) {
+        super(processId, null, serversResponseHandler, serversResponseHandler, null);
+        this.logger = LoggerFactory.getLogger("confidential");
+        this.serversResponseHandler = serversResponseHandler;
+        this.pendingRequests = new ConcurrentHashMap<>();
+        this.sendLock = new ReentrantLock();
+        //benchmarks run hundreds of clients in one process, so their proxies share the threads
+        synchronized (sharedExecutorsLock) {
+            if (sharedExecutorsReferences++ == 0) {
+                sharedTimeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "Pipelined Proxy Timeout Thread");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                sharedResponseExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread thread = new Thread(r, "Pipelined Proxy Response Thread");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            this.timeoutScheduler = sharedTimeoutScheduler;
+            this.responseExecutor = sharedResponseExecutor;
+        }
+    }
+
+    /**
+     * Executor for the work that follows a reply quorum, such as retrying a request or reconstructing the secrets of
+     * its response, so that the thread delivering replies is never blocked by it.
+     */
+    ExecutorService getResponseExecutor() {
+        return responseExecutor;
+    }
+
+    /**
+     * Sends the request with the response handler given at construction and waits for its response. Hashed unordered
+     * requests are sent as unordered ones.
+     */
+    @Override
+    public byte[] invoke(TOMMessageType requestType, byte[] request, Map<Integer, byte[]> privateData, byte metadata) {
+        if (requestType == TOMMessageType.UNORDERED_HASHED_REQUEST) {
+            requestType = TOMMessageType.UNORDERED_REQUEST;
+        }
+        return join(invokeAsynch(request, privateData, metadata, requestType, serversResponseHandler));
+    }
+
+    /**
+     * Waits for the future, throwing the cause of its failure if it is unchecked.
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request and returns a future with the content of the extracted response, or null if the request
+     * timed out. Unordered requests that do not gather matching replies are retried as ordered.
+     */
+    CompletableFuture<byte[]> invokeAsynch(byte[] commonData, Map<Integer, byte[]> privateData, byte metadata,
+                                           TOMMessageType requestType, ServersResponseHandler serversResponseHandler) {
+        return invokeAsynch(commonData, privateData, metadata, requestType, serversResponseHandler, false);
+    }
+
+    /**
+     * @param optimisticRead if true, an unordered request completes as soon as f+1 matching replies yield a response
+     * whose secrets are all reconstructed and verified against their commitments, instead of waiting for the reply
+     * quorum. It is retried as ordered if all replies arrive without that happening.
+     */
+    CompletableFuture<byte[]> invokeAsynch(byte[] commonData, Map<Integer, byte[]> privateData, byte metadata,
+                                           TOMMessageType requestType, ServersResponseHandler serversResponseHandler,
+                                           boolean optimisticRead) {
+        PendingRequest request = new PendingRequest(commonData, privateData, metadata, serversResponseHandler,
+                optimisticRead);
+        send(request, requestType);
+        return request.future;
+    }
+
+    /**
+     * Sends the request with new ids. Apart from the first send, it is only called from an action of the request.
+     */
+    private void send(PendingRequest request, TOMMessageType requestType) {
+        //sequence numbers must reach the replicas in the order they were generated
+        sendLock.lock();
+        try {
+            int reqId = generateRequestId(requestType);
+            int operationId = generateOperationId();
+            long key = key(requestType, reqId);
+            if (requestType == TOMMessageType.ORDERED_REQUEST) {
+                //an unordered request retried as ordered may have asked for digest replies
+                request.metadata = Metadata.withoutDigestReplies(request.metadata);
+            }
+            request.start(key, requestType, getViewManager().getCurrentViewN());
+            request.timeout = timeoutScheduler.schedule(() -> submit(request, () -> timeout(key, request)),
+                    getInvokeTimeout(), TimeUnit.SECONDS);
+            pendingRequests.put(key, request);
+            sendMessageToTargets(request.commonData, request.privateData, request.metadata, reqId, operationId,
+                    requestType, getViewManager().getCurrentViewProcesses());
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    @Override
+    public void replyReceived(TOMMessage reply) {
+        long key = key(reply.getReqType(), reply.getSequence());
+        PendingRequest request = pendingRequests.get(key);
+        if (request == null) {
+            super.replyReceived(reply);
+            return;
+        }
+        submit(request, () -> processReply(key, request, reply));
+    }
+
+    /**
+     * Runs the action on the response executor after the actions submitted before it for the same request. Actions of
+     * a request never run concurrently, so its replies and response handler are used by one thread at a time.
+     */
+    private void submit(PendingRequest request, Runnable action) {
+        synchronized (request.actions) {
+            request.actions.add(action);
+            if (request.runningActions) {
+                return;
+            }
+            request.runningActions = true;
+        }
+        try {
+            responseExecutor.execute(() -> runActions(request));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dropped action of a request of a closed proxy");
+        }
+    }
+
+    private void runActions(PendingRequest request) {
+        while (true) {
+            Runnable action;
+            synchronized (request.actions) {
+                action = request.actions.poll();
+                if (action == null) {
+                    request.runningActions = false;
+                    return;
+                }
+            }
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                logger.error("Failed to process reply", e);
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void processReply(long key, PendingRequest request, TOMMessage reply) {
+        if (request.future.isDone() || request.key != key) {
+            return;
+        }
+        int pos = getViewManager().getCurrentViewPos(reply.getSender());
+        if (pos < 0 || pos >= request.replies.length) {
+            return;
+        }
+        request.addReply(pos, reply);
+        if (reply.getViewID() > getViewManager().getCurrentViewId()) {
+            //replicas answer requests from an older view with their current view
+            if (request.countSameView(pos) > getViewManager().getCurrentViewF()) {
+                Object view = TOMUtil.getObject(reply.getContent());
+                if (view instanceof View) {
+                    finish(request);
+                    reconfigureAndResend(request, (View)view);
+                    return;
+                }
+            }
+        }
+        else {
+            boolean optimistic = request.optimisticRead && request.requestType == TOMMessageType.UNORDERED_REQUEST;
+            TOMMessage response = request.extractResponse(pos, optimistic ? getViewManager().getCurrentViewF() + 1
+                    : getReplyQuorum(), optimistic);
+            if (response != null) {
+                finish(request);
+                request.future.complete(response.getContent());
+                return;
+            }
+        }
+        if (request.receivedReplies < request.replies.length) {
+            return;
+        }
+        finish(request);
+        if (request.requestType == TOMMessageType.UNORDERED_REQUEST) {
+            logger.debug("Received {} replies without a quorum for unordered request. Retrying as ordered",
+                    request.replies.length);
+            send(request, TOMMessageType.ORDERED_REQUEST);
+        }
+        else {
+            request.future.completeExceptionally(
+                    new IllegalStateException("Received n-f replies without f+1 of them matching."));
+        }
+    }
+
+    private void reconfigureAndResend(PendingRequest request, View view) {
+        sendLock.lock();
+        try {
+            //other requests in flight may have reconfigured the proxy already
+            if (view.getId() > getViewManager().getCurrentViewId()) {
+                logger.info("Reconfiguring to view {}", view.getId());
+                reconfigureTo(view);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+        send(request, request.requestType);
+    }
+
+    private void finish(PendingRequest request) {
+        pendingRequests.remove(request.key);
+        request.timeout.cancel(false);
+    }
+
+    private void timeout(long key, PendingRequest request) {
+        if (request.key != key || pendingRequests.remove(key) == null || request.future.isDone()) {
+            return;
+        }
+        if (request.requestType == TOMMessageType.UNORDERED_REQUEST) {
+            logger.debug("Unordered request timed out. Retrying as ordered");
+            send(request, TOMMessageType.ORDERED_REQUEST);
+        }
+        else {
+            logger.info("Asynchronous request timed out after {} s", getInvokeTimeout());
+            request.future.complete(null);
+        }
+    }
+
+    private static long key(TOMMessageType requestType, int reqId) {
+        return ((long)requestType.ordinal() << 32) | (reqId & 0xffffffffL);
+    }
+
+    @Override
+    public void close() {
+        for (PendingRequest request : pendingRequests.values()) {
+            request.timeout.cancel(false);
+            request.future.completeExceptionally(new IllegalStateException("Proxy was closed"));
+        }
+        pendingRequests.clear();
+        super.close();
+        synchronized (sharedExecutorsLock) {
+            if (--sharedExecutorsReferences == 0) {
+                sharedTimeoutScheduler.shutdownNow();
+                sharedResponseExecutor.shutdown();
+                sharedTimeoutScheduler = null;
+                sharedResponseExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Apart from its future and timeout, the state of a request is only used by the thread sending it for the first
+     * time and then by its actions.
+     */
+    private static class PendingRequest {
+        private final byte[] commonData;
+        private final Map<Integer, byte[]> privateData;
+        private byte metadata;
+        private final ServersResponseHandler serversResponseHandler;
+        private final boolean optimisticRead;
+        private final CompletableFuture<byte[]> future;
+        private final ArrayDeque<Runnable> actions;
+        private boolean runningActions; //guarded by actions
+        private long key;
+        private TOMMessageType requestType;
+        private TOMMessage[] replies;
+        private int receivedReplies;
+        private volatile ScheduledFuture<?> timeout;
+
+        private PendingRequest(byte[] commonData, Map<Integer, byte[]> privateData, byte metadata,
+                               ServersResponseHandler serversResponseHandler, boolean optimisticRead) {
+            this.commonData = commonData;
+            this.privateData = privateData;
+            this.metadata = metadata;
+            this.serversResponseHandler = serversResponseHandler;
+            this.optimisticRead = optimisticRead;
+            this.future = new CompletableFuture<>();
+            this.actions = new ArrayDeque<>();
+        }
+
+        private void start(long key, TOMMessageType requestType, int n) {
+            this.key = key;
+            this.requestType = requestType;
+            this.replies = new TOMMessage[n];
+            this.receivedReplies = 0;
+            serversResponseHandler.reset();
+        }
+
+        private void addReply(int pos, TOMMessage reply) {
+            if (replies[pos] == null) {
+                receivedReplies++;
+            }
+            replies[pos] = reply;
+        }
+
+        /**
+         * Returns the number of replies from the view of the reply at pos with the same content as it.
+         */
+        private int countSameView(int pos) {
+            TOMMessage reply = replies[pos];
+            int sameView = 0;
+            for (TOMMessage other : replies) {
+                if (other != null && other.getViewID() == reply.getViewID()
+                        && Arrays.equals(other.getContent(), reply.getContent())) {
+                    sameView++;
+                }
+            }
+            return sameView;
+        }
+
+        /**
+         * Returns the extracted response once replyQuorum replies match the one at pos, or null otherwise. Only
+         * replies from the same view are compared. With a verified quorum, matching replies only count once the
+         * response extracted from them is verified.
+         */
+        private TOMMessage extractResponse(int pos, int replyQuorum, boolean verifiedQuorum) {
+            TOMMessage reply = replies[pos];
+            TOMMessage[] sameView = new TOMMessage[replies.length];
+            int sameContent = 0;
+            for (int i = 0; i < replies.length; i++) {
+                if (replies[i] != null && replies[i].getViewID() == reply.getViewID()) {
+                    sameView[i] = replies[i];
+                    if (i == pos || serversResponseHandler.compare(replies[i].getContent(), reply.getContent()) == 0) {
+                        sameContent++;
+                    }
+                }
+            }
+            if (sameContent >= replyQuorum) {
+                TOMMessage response = serversResponseHandler.extractResponse(sameView, sameContent, pos);
+                if (verifiedQuorum && !serversResponseHandler.isResponseVerified()) {
+                    //wait for more matching replies, as the ones received may include invalid shares
+                    return null;
+                }
+                return response;
+            }
+            return null;
+        }
+    }
+}
@@ -14,7 +14,9 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class PlainServersResponseHandler extends ServersResponseHandler {
     private final Map<byte[], ConfidentialMessage> responses;
@@ -58,42 +60,38 @@ public class PlainServersResponseHandler extends ServersResponseHandler {
                             verifiableShares.get(j).add(sharesI[j].getShare().getShareAtIndex(0));
                         }
                     }
-                    for (int k = 0; k < numSecrets; ++k) {
-                        LinkedList<VerifiableShare> secretI = verifiableShares.get(k);
-                        Share[] shares = new Share[secretI.size()];
-                        Map<BigInteger, Commitment> commitmentsToCombine = new HashMap<>(secretI.size());
-                        byte[] shareData = secretI.getFirst().getSharedData();
-                        int l = 0;
-                        for (VerifiableShare verifiableShare : secretI) {
-                            shares[l] = verifiableShare.getShare();
-                            commitmentsToCombine.put(verifiableShare.getShare().getShareholder(), verifiableShare.getCommitments());
-                            ++l;
-                        }
-                        Commitment commitment = commitmentScheme.combineCommitments(commitmentsToCombine);
-                        OpenPublishedShares secret = new OpenPublishedShares(shares, commitment, shareData);
-                        try {
-                            confidentialData[k] = confidentialityScheme.combine(secret);
-                        }
-                        catch (SecretSharingException e) {
-                            ExtractedResponse extractedResponse = new ExtractedResponse(plainData, confidentialData, e);
-                            TOMMessage lastMsg = replies[lastReceived];
-                            return new TOMMessage(lastMsg.getSender(), lastMsg.getSession(), lastMsg.getSequence(),
-                                    lastMsg.getOperationId(), extractedResponse.serialize(), new byte[0],
-                                    lastMsg.getViewID(), lastMsg.getReqType());
-                        }
+                    List<Callable<byte[]>> reconstructions = new ArrayList<>(numSecrets);
+                    for (LinkedList<VerifiableShare> secretI : verifiableShares) {
+                        reconstructions.add(() -> reconstructSecret(secretI));
+                    }
+                    try {
+                        confidentialData = confidentialityScheme.reconstructAll(reconstructions);
+                    }
+                    catch (SecretSharingException e) {
+                        return handOver(replies[lastReceived], new ExtractedResponse(plainData, confidentialData, e));
                     }
                 }
-                ExtractedResponse extractedResponse2 = new ExtractedResponse(plainData, confidentialData);
-                TOMMessage lastMsg = replies[lastReceived];
-                return new TOMMessage(lastMsg.getSender(), lastMsg.getSession(), lastMsg.getSequence(),
-                        lastMsg.getOperationId(), extractedResponse2.serialize(), new byte[0], lastMsg.getViewID(),
-                        lastMsg.getReqType());
+                return handOver(replies[lastReceived], new ExtractedResponse(plainData, confidentialData));
             }
         }
         logger.error("This should not happen. Did not found {} equivalent responses", sameContent);
         return null;
     }
     
+    private byte[] reconstructSecret(LinkedList<VerifiableShare> secretI) throws SecretSharingException {
+        Share[] shares = new Share[secretI.size()];
+        Map<BigInteger, Commitment> commitmentsToCombine = new HashMap<>(secretI.size());
+        byte[] shareData = secretI.getFirst().getSharedData();
+        int l = 0;
+        for (VerifiableShare verifiableShare : secretI) {
+            shares[l] = verifiableShare.getShare();
+            commitmentsToCombine.put(verifiableShare.getShare().getShareholder(), verifiableShare.getCommitments());
+            ++l;
+        }
+        Commitment commitment = confidentialityScheme.combineCommitments(commitmentsToCombine);
+        return confidentialityScheme.combine(new OpenPublishedShares(shares, commitment, shareData));
+    }
+    
     @Override
     public int compare(byte[] o1, byte[] o2) {
         ConfidentialMessage response1 = responses.computeIfAbsent(o1, ConfidentialMessage::deserialize);
@@ -114,6 +112,7 @@ public class PlainServersResponseHandler extends ServersResponseHandler {
     
     @Override
     public void reset() {
+        super.reset();
         responses.clear();
         responseHashes.clear();
     }
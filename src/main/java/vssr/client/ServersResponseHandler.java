@@ -3,13 +3,17 @@ package vssr.client;
 import org.slf4j.LoggerFactory;
 import vss.commitment.CommitmentScheme;
 import org.slf4j.Logger;
+import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.util.Extractor;
+import vssr.ExtractedResponse;
 import java.util.Comparator;
 
 public abstract class ServersResponseHandler implements Comparator<byte[]>, Extractor {
     protected final Logger logger;
     protected CommitmentScheme commitmentScheme;
     protected ClientConfidentialityScheme confidentialityScheme;
+    private volatile ExtractedResponse extractedResponse;
+    private volatile boolean fullRepliesRequired;
     
     public ServersResponseHandler() {
         logger = LoggerFactory.getLogger("confidential");
@@ -20,5 +24,60 @@ public abstract class ServersResponseHandler implements Comparator<byte[]>, Extr
         this.commitmentScheme = confidentialityScheme.getCommitmentScheme();
     }
     
-    public abstract void reset();
+    /**
+     * Keeps the reconstructed response for {@link #takeExtractedResponse()} and returns the reply handed by BFT-SMaRt
+     * to the invoking thread. The reply has no content, so the response is not serialized only to be deserialized
+     * again by the proxy.
+     */
+    protected TOMMessage handOver(TOMMessage lastMsg, ExtractedResponse extractedResponse) {
+        this.extractedResponse = extractedResponse;
+        return new TOMMessage(lastMsg.getSender(), lastMsg.getSession(), lastMsg.getSequence(),
+                lastMsg.getOperationId(), new byte[0], new byte[0], lastMsg.getViewID(), lastMsg.getReqType());
+    }
+
+    /**
+     * Returns the response extracted for the current request, or null if none was handed over.
+     */
+    public ExtractedResponse takeExtractedResponse() {
+        ExtractedResponse result = extractedResponse;
+        extractedResponse = null;
+        return result;
+    }
+    
+    /**
+     * Marks that the matching replies were digest replies without a valid full one, so the request must be repeated
+     * asking every server for full replies.
+     */
+    protected TOMMessage requireFullReplies(TOMMessage lastMsg) {
+        fullRepliesRequired = true;
+        return handOver(lastMsg, null);
+    }
+
+    public boolean isFullRepliesRequired() {
+        return fullRepliesRequired;
+    }
+
+    /**
+     * Returns true if a response was handed over for the current request and all its secrets were reconstructed,
+     * which means they were verified against their commitments.
+     */
+    boolean isResponseVerified() {
+        ExtractedResponse response = extractedResponse;
+        if (response == null || response.getThrowable() != null) {
+            return false;
+        }
+        if (response.getConfidentialData() != null) {
+            for (byte[] secret : response.getConfidentialData()) {
+                if (secret == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    public void reset() {
+        extractedResponse = null;
+        fullRepliesRequired = false;
+    }
 }
@@ -0,0 +1,34 @@
+package vssr.client;
+
+import vss.commitment.Commitment;
+import vssr.encrypted.EncryptedShare;
+
+import java.math.BigInteger;
+
+/**
+ * Secret-independent part of a VSSR sharing: the random value r and the l recovery point sharings.
+ * Index 0 of the commitments and encrypted shares is reserved for the secret sharing.
+ */
+public class SharingKit {
+    private final BigInteger r;
+    private final Commitment[] commitments;
+    private final EncryptedShare[][] encryptedShares;
+
+    public SharingKit(BigInteger r, Commitment[] commitments, EncryptedShare[][] encryptedShares) {
+        this.r = r;
+        this.commitments = commitments;
+        this.encryptedShares = encryptedShares;
+    }
+
+    public BigInteger getR() {
+        return r;
+    }
+
+    public Commitment[] getCommitments() {
+        return commitments;
+    }
+
+    public EncryptedShare[][] getEncryptedShares() {
+        return encryptedShares;
+    }
+}
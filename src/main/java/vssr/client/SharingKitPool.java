@@ -0,0 +1,55 @@
+package vssr.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vss.facade.SecretSharingException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps a bounded number of sharing kits ready, refilled by background threads.
+ */
+public class SharingKitPool {
+    private final Logger logger;
+    private final BlockingQueue<SharingKit> kits;
+    private final Thread[] workers;
+
+    public SharingKitPool(ClientConfidentialityScheme confidentialityScheme, int capacity, int nThreads) {
+        this.logger = LoggerFactory.getLogger("vssr");
+        this.kits = new ArrayBlockingQueue<>(capacity);
+        this.workers = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        kits.put(confidentialityScheme.computeSharingKit());
+                    }
+                } catch (InterruptedException ignored) {
+                } catch (SecretSharingException e) {
+                    logger.error("Failed to precompute sharing kit. Stopping precomputation thread.", e);
+                }
+            }, "Sharing Kit Precomputation Thread " + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Returns a precomputed kit or null if none is ready.
+     */
+    public SharingKit poll() {
+        return kits.poll();
+    }
+
+    public int available() {
+        return kits.size();
+    }
+
+    public void shutdown() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        kits.clear();
+    }
+}
@@ -3,71 +3,117 @@ package vssr.demo.map;
 import bftsmart.tom.MessageContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import vssr.Configuration;
 import vssr.ConfidentialData;
 import vssr.ConfidentialMessage;
+import vssr.server.ConfidentialBatchExecutable;
 import vssr.server.ConfidentialServerFacade;
-import vssr.server.ConfidentialSingleExecutable;
+import vssr.server.DeterministicScheduler;
+import vssr.server.DeterministicScheduler.AccessSet;
 import vssr.statemanagement.ConfidentialSnapshot;
 
 import java.io.*;
+import java.util.Collections;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
-public class KVStoreServer implements ConfidentialSingleExecutable {
+/**
+ * Executes the requests of each decided batch with a {@link DeterministicScheduler}: operations on different keys run
+ * in parallel and getAll waits for every other operation. The map is sorted like a TreeMap, so snapshots and getAll
+ * replies are the same as with sequential execution.
+ */
+public class KVStoreServer implements ConfidentialBatchExecutable {
 	private final Logger logger = LoggerFactory.getLogger("demo");
+	private final DeterministicScheduler scheduler;
 	private Map<String, ConfidentialData> map;
 
 	KVStoreServer(int processId) {
-		this.map = new TreeMap<>();
+		this(new DeterministicScheduler(Configuration.getInstance().getExecutionThreads()));
 		new ConfidentialServerFacade(processId, this);
 	}
 
+	/**
+	 * Creates the store without a replica, to execute requests directly.
+	 */
+	public KVStoreServer(DeterministicScheduler scheduler) {
+		this.scheduler = scheduler;
+		this.map = new ConcurrentSkipListMap<>();
+	}
+
 	@Override
 	public ConfidentialMessage appExecuteOrdered(byte[] plainData, ConfidentialData[] shares, MessageContext msgCtx) {
+		Request request = parse(plainData, msgCtx);
+		return request == null ? null : execute(request, shares);
+	}
+
+	@Override
+	public ConfidentialMessage[] appExecuteBatch(byte[][] plainData, ConfidentialData[][] shares, MessageContext[] msgCtx) {
+		Request[] requests = new Request[plainData.length];
+		AccessSet[] accessSets = new AccessSet[plainData.length];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = parse(plainData[i], msgCtx[i]);
+			if (requests[i] == null) {
+				accessSets[i] = AccessSet.of(Collections.emptySet(), Collections.emptySet());
+			}
+			else if (requests[i].op == Operation.GET_ALL) {
+				accessSets[i] = AccessSet.wholeState();
+			}
+			else if (requests[i].op == Operation.GET) {
+				accessSets[i] = AccessSet.reading(requests[i].key);
+			}
+			else {
+				accessSets[i] = AccessSet.writing(requests[i].key);
+			}
+		}
+		return scheduler.execute(accessSets, i -> requests[i] == null ? null : execute(requests[i], shares[i]));
+	}
+
+	private Request parse(byte[] plainData, MessageContext msgCtx) {
 		try (ByteArrayInputStream bis = new ByteArrayInputStream(plainData);
 			 ObjectInput in = new ObjectInputStream(bis)) {
 			Operation op = Operation.getOperation(in.read());
-			String str;
-			ConfidentialData value;
-			switch (op) {
-				case GET: {
-					str = in.readUTF();
-					value = this.map.get(str);
-					if (value != null) {
-						return new ConfidentialMessage(null, value);
-					}
-					return new ConfidentialMessage();
+			return new Request(op, op == Operation.GET_ALL ? null : in.readUTF());
+		} catch (IOException e) {
+			this.logger.error("Failed to attend ordered request from {}", msgCtx.getSender(), e);
+			return null;
+		}
+	}
+
+	private ConfidentialMessage execute(Request request, ConfidentialData[] shares) {
+		ConfidentialData value;
+		switch (request.op) {
+			case GET: {
+				value = this.map.get(request.key);
+				if (value != null) {
+					return new ConfidentialMessage(null, value);
 				}
-				case PUT: {
-					str = in.readUTF();
-					value = map.put(str, shares[0]);
-					if (value != null) {
-						return new ConfidentialMessage(null, value);
-					}
-					return new ConfidentialMessage();
+				return new ConfidentialMessage();
+			}
+			case PUT: {
+				value = map.put(request.key, shares[0]);
+				if (value != null) {
+					return new ConfidentialMessage(null, value);
 				}
-				case REMOVE: {
-					str = in.readUTF();
-					value = map.remove(str);
-					if (value != null) {
-						return new ConfidentialMessage(null, value);
-					}
+				return new ConfidentialMessage();
+			}
+			case REMOVE: {
+				value = map.remove(request.key);
+				if (value != null) {
+					return new ConfidentialMessage(null, value);
+				}
+				return new ConfidentialMessage();
+			}
+			case GET_ALL: {
+				if (map.isEmpty()) {
 					return new ConfidentialMessage();
 				}
-				case GET_ALL: {
-					if (map.isEmpty()) {
-						return new ConfidentialMessage();
-					}
-					ConfidentialData[] allValues = new ConfidentialData[map.size()];
-					int i = 0;
-					for (ConfidentialData share : map.values()) {
-						allValues[i++] = share;
-					}
-					return new ConfidentialMessage(null, allValues);
+				ConfidentialData[] allValues = new ConfidentialData[map.size()];
+				int i = 0;
+				for (ConfidentialData share : map.values()) {
+					allValues[i++] = share;
 				}
+				return new ConfidentialMessage(null, allValues);
 			}
-		} catch (IOException e) {
-			this.logger.error("Failed to attend ordered request from {}", msgCtx.getSender(), e);
 		}
 		return null;
 	}
@@ -127,7 +173,7 @@ public class KVStoreServer implements ConfidentialSingleExecutable {
 		try (ByteArrayInputStream bis = new ByteArrayInputStream(snapshot.getPlainData());
 			ObjectInput in = new ObjectInputStream(bis)) {
 					int size = in.readInt();
-					map = new TreeMap<>();
+					map = new ConcurrentSkipListMap<>();
 					ConfidentialData[] shares = snapshot.getShares();
 					for (int i = 0; i < size; ++i) {
 						map.put(in.readUTF(), shares[i]);
@@ -136,4 +182,14 @@ public class KVStoreServer implements ConfidentialSingleExecutable {
 			e.printStackTrace();
 		}
 	}
+
+	private static class Request {
+		private final Operation op;
+		private final String key;
+
+		private Request(Operation op, String key) {
+			this.op = op;
+			this.key = key;
+		}
+	}
 }
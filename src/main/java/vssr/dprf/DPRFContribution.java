@@ -12,16 +12,29 @@ public class DPRFContribution implements Externalizable {
     private BigInteger f;
     private BigInteger z;
     private BigInteger c;
+    private BigInteger xhr;
+    private BigInteger hr;
     
     public DPRFContribution() {
     }
     
     public DPRFContribution(BigInteger ofShareholder, BigInteger forShareholder, BigInteger f, BigInteger z, BigInteger c) {
+        this(ofShareholder, forShareholder, f, z, c, null, null);
+    }
+    
+    /**
+     * xhr and hr are the proof commitments H(x)^r and h^r. They are redundant for single verification, but
+     * allow contributions to be batch verified.
+     */
+    public DPRFContribution(BigInteger ofShareholder, BigInteger forShareholder, BigInteger f, BigInteger z, BigInteger c,
+                            BigInteger xhr, BigInteger hr) {
         this.ofShareholder = ofShareholder;
         this.forShareholder = forShareholder;
         this.f = f;
         this.z = z;
         this.c = c;
+        this.xhr = xhr;
+        this.hr = hr;
     }
     
     public BigInteger getForShareholder() {
@@ -44,9 +57,17 @@ public class DPRFContribution implements Externalizable {
         return z;
     }
     
+    public BigInteger getXhr() {
+        return xhr;
+    }
+    
+    public BigInteger getHr() {
+        return hr;
+    }
+    
     @Override
     public String toString() {
-        return "DPRFContribution{ofShareholder=" + this.ofShareholder + ",\nforShareholder=" + this.forShareholder + ",\nf=" + this.f + ",\nz=" + this.z + ",\nc=" + this.c + '}';
+        return "DPRFContribution{ofShareholder=" + this.ofShareholder + ",\nforShareholder=" + this.forShareholder + ",\nf=" + this.f + ",\nz=" + this.z + ",\nc=" + this.c + ",\nxhr=" + this.xhr + ",\nhr=" + this.hr + '}';
     }
     
     @Override
@@ -56,6 +77,8 @@ public class DPRFContribution implements Externalizable {
         serializeBigInteger(f, out);
         serializeBigInteger(z, out);
         serializeBigInteger(c, out);
+        serializeBigInteger(xhr, out);
+        serializeBigInteger(hr, out);
     }
     
     @Override
@@ -65,6 +88,8 @@ public class DPRFContribution implements Externalizable {
         this.f = deserializeBigInteger(in);
         this.z = deserializeBigInteger(in);
         this.c = deserializeBigInteger(in);
+        this.xhr = deserializeBigInteger(in);
+        this.hr = deserializeBigInteger(in);
     }
     
     private static void serializeBigInteger(BigInteger value, ObjectOutput out) throws IOException {
@@ -3,6 +3,8 @@ package vssr.dprf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vss.polynomial.Polynomial;
+import vssr.math.FixedBaseExponentiation;
+import vssr.math.MultiExponentiation;
 
 import java.math.BigInteger;
 import java.security.MessageDigest;
@@ -11,17 +13,21 @@ import java.security.SecureRandom;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DPRFScheme {
-    private static final byte[] SEED = "vssr".getBytes();
+    private static final int BATCH_EXPONENT_BITS = 128;
+    private static final int LAGRANGE_CACHE_SIZE = 1024;
     private final Logger logger;
     private final BigInteger field;
     private final BigInteger generator;
-    private MessageDigest digest;
-    private final Lock hashLock;
-    private final SecureRandom rndGenerator;
+    private final BigInteger order;
+    private final FixedBaseExponentiation generatorPowers;
+    private final Map<BigInteger, FixedBaseExponentiation> fixedBases;
+    private final ThreadLocal<MessageDigest> digest;
+    private final ThreadLocal<SecureRandom> rndGenerator;
+    private final SecureRandom batchRndGenerator;
+    private final LagrangeCoefficientCache lagrangeCoefficients;
     private final BigInteger alpha;
     private int threshold;
     
@@ -29,15 +35,29 @@ public class DPRFScheme {
         this.logger = LoggerFactory.getLogger("vssr");
         this.field = field;
         this.generator = generator;
-        this.rndGenerator = new SecureRandom(DPRFScheme.SEED);
+        this.order = field.subtract(BigInteger.ONE);
+        this.generatorPowers = new FixedBaseExponentiation(generator, field, order);
+        this.fixedBases = new ConcurrentHashMap<>();
+        this.fixedBases.put(generator, generatorPowers);
+        this.rndGenerator = ThreadLocal.withInitial(SecureRandom::new);
+        this.batchRndGenerator = new SecureRandom();
+        this.lagrangeCoefficients = new LagrangeCoefficientCache(LAGRANGE_CACHE_SIZE);
         try {
-            this.digest = MessageDigest.getInstance("SHA-256");
+            MessageDigest.getInstance("SHA-256");
         }
         catch (NoSuchAlgorithmException e) {
             this.logger.error("Failed to instantiate Message Digest.", e);
             System.exit(-1);
         }
-        this.hashLock = new ReentrantLock();
+        //one digest per thread so that hashing never contends between share processing threads
+        this.digest = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Failed to instantiate Message Digest.", e);
+            }
+        });
         this.alpha = new BigInteger("8212358705384120491879690644965329697418472285881853302754892007160277640199");
     }
     
@@ -49,9 +69,12 @@ public class DPRFScheme {
         for (BigInteger shareholder : shareholders) {
             BigInteger share = polynomial.evaluateAt(shareholder);
             privateParameters.put(shareholder, new DPRFPrivateParameters(share));
-            hAlphaShares.put(shareholder, generator.modPow(share, field));
+            BigInteger hAlphaShare = generatorPowers.pow(share);
+            hAlphaShares.put(shareholder, hAlphaShare);
+            registerFixedBase(hAlphaShare);
+            registerFixedBase(new BigInteger(hash(shareholder.toByteArray())));
         }
-        BigInteger hAlpha = generator.modPow(alpha, field);
+        BigInteger hAlpha = generatorPowers.pow(alpha);
         DPRFPublicParameters publicParameters = new DPRFPublicParameters(generator, hAlpha, hAlphaShares);
         return new DPRFParameters(publicParameters, privateParameters);
     }
@@ -60,26 +83,112 @@ public class DPRFScheme {
         BigInteger alphaShare = privateParameters.getAlphaShare();
         byte[] xH = hash(forShareholder.toByteArray());
         BigInteger xHNumber = new BigInteger(xH);
-        BigInteger f = xHNumber.modPow(alphaShare, field);
-        BigInteger ha = generator.modPow(alphaShare, field);
-        BigInteger xhr = xHNumber.modPow(r, field);
-        BigInteger hr = generator.modPow(r, field);
+        BigInteger f = pow(xHNumber, alphaShare);
+        BigInteger ha = generatorPowers.pow(alphaShare);
+        BigInteger xhr = pow(xHNumber, r);
+        BigInteger hr = generatorPowers.pow(r);
         byte[] cBytes = hash(xH, generator.toByteArray(), f.toByteArray(), ha.toByteArray(), xhr.toByteArray(), hr.toByteArray());
         BigInteger c = new BigInteger(cBytes);
         BigInteger z = alphaShare.multiply(c).add(r);
-        return new DPRFContribution(ofShareholder, forShareholder, f, z, c);
+        return new DPRFContribution(ofShareholder, forShareholder, f, z, c, xhr, hr);
     }
     
+    /**
+     * Returns false for contributions with missing fields or of an unknown shareholder.
+     */
     public boolean verify(DPRFPublicParameters publicParameters, DPRFContribution d) {
+        if (!isComplete(d)) {
+            return false;
+        }
         BigInteger hAlpha = publicParameters.getHSharesOf(d.getOfShareholder());
+        if (hAlpha == null) {
+            return false;
+        }
         byte[] xH = hash(d.getForShareholder().toByteArray());
         BigInteger f = d.getF();
-        BigInteger xhz = new BigInteger(xH).modPow(d.getZ(), field).multiply(f.modPow(d.getC(), field).modInverse(field)).mod(field);
-        BigInteger hz = generator.modPow(d.getZ(), field).multiply(hAlpha.modPow(d.getC(), field).modInverse(field)).mod(field);
+        BigInteger[] exponents = { d.getZ(), d.getC().negate() };
+        BigInteger xhz = multiPow(new BigInteger[] { new BigInteger(xH), f }, exponents);
+        BigInteger hz = multiPow(new BigInteger[] { generator, hAlpha }, exponents);
         byte[] hash = hash(xH, generator.toByteArray(), f.toByteArray(), hAlpha.toByteArray(), xhz.toByteArray(), hz.toByteArray());
         return d.getC().equals(new BigInteger(hash));
     }
     
+    /**
+     * Verifies contributions of a single shareholder for a single x with a random linear combination of their
+     * proofs, which costs two fixed-base exponentiations plus one multi-exponentiation with short exponents
+     * for the whole batch. Falls back to verifying each contribution when the batch check fails or the
+     * contributions cannot be batched, so the result only differs from verifying each contribution with
+     * negligible probability.
+     */
+    public boolean batchVerify(DPRFPublicParameters publicParameters, DPRFContribution... contributions) {
+        if (contributions.length == 0) {
+            return true;
+        }
+        DPRFContribution first = contributions[0];
+        if (!isComplete(first)) {
+            return false;
+        }
+        BigInteger hAlpha = publicParameters.getHSharesOf(first.getOfShareholder());
+        BigInteger f = first.getF();
+        if (hAlpha == null) {
+            return false;
+        }
+        byte[] xH = hash(first.getForShareholder().toByteArray());
+        byte[] generatorBytes = generator.toByteArray();
+        byte[] fBytes = f.toByteArray();
+        byte[] hAlphaBytes = hAlpha.toByteArray();
+        BigInteger[] deltas = new BigInteger[contributions.length];
+        BigInteger[] xhrs = new BigInteger[contributions.length];
+        BigInteger[] hrs = new BigInteger[contributions.length];
+        BigInteger zSum = BigInteger.ZERO;
+        BigInteger cSum = BigInteger.ZERO;
+        for (int i = 0; i < contributions.length; i++) {
+            DPRFContribution d = contributions[i];
+            if (!isComplete(d)) {
+                return false;
+            }
+            if (d.getXhr() == null || d.getHr() == null || !first.getOfShareholder().equals(d.getOfShareholder())
+                    || !first.getForShareholder().equals(d.getForShareholder()) || !f.equals(d.getF())) {
+                return verifyEach(publicParameters, contributions);
+            }
+            byte[] hash = hash(xH, generatorBytes, fBytes, hAlphaBytes, d.getXhr().toByteArray(), d.getHr().toByteArray());
+            if (!d.getC().equals(new BigInteger(hash))) {
+                return verifyEach(publicParameters, contributions);
+            }
+            deltas[i] = new BigInteger(BATCH_EXPONENT_BITS, batchRndGenerator);
+            xhrs[i] = d.getXhr();
+            hrs[i] = d.getHr();
+            zSum = zSum.add(deltas[i].multiply(d.getZ()));
+            cSum = cSum.add(deltas[i].multiply(d.getC()));
+        }
+        zSum = zSum.mod(order);
+        cSum = cSum.mod(order);
+        BigInteger xhz = pow(new BigInteger(xH), zSum);
+        BigInteger xhrf = MultiExponentiation.pow(xhrs, deltas, field).multiply(pow(f, cSum)).mod(field);
+        BigInteger hz = generatorPowers.pow(zSum);
+        BigInteger hrhAlpha = MultiExponentiation.pow(hrs, deltas, field).multiply(pow(hAlpha, cSum)).mod(field);
+        if (xhz.equals(xhrf) && hz.equals(hrhAlpha)) {
+            return true;
+        }
+        logger.warn("Batch verification of DPRF contributions of {} failed. Verifying each contribution.",
+                first.getOfShareholder());
+        return verifyEach(publicParameters, contributions);
+    }
+    
+    private static boolean isComplete(DPRFContribution d) {
+        return d != null && d.getOfShareholder() != null && d.getForShareholder() != null && d.getF() != null
+                && d.getZ() != null && d.getC() != null;
+    }
+
+    private boolean verifyEach(DPRFPublicParameters publicParameters, DPRFContribution[] contributions) {
+        for (DPRFContribution contribution : contributions) {
+            if (!verify(publicParameters, contribution)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     public BigInteger evaluate(DPRFPublicParameters publicParameters, BigInteger x, DPRFContribution... d) {
         LinkedList<DPRFContribution> contributionsList = new LinkedList<>();
         for (DPRFContribution contribute : d) {
@@ -94,42 +203,141 @@ public class DPRFScheme {
                 }
             }
         }
-        DPRFContribution[] contributions = contributionsList.toArray(new DPRFContribution[0]);
-        BigInteger generator = new BigInteger(hash(x.toByteArray()));
-        BigInteger result = BigInteger.ZERO;
-        for (int di = 0; di < contributions.length; ++di) {
-            DPRFContribution i = contributions[di];
-            BigInteger l = i.getF();
-            BigInteger gx = generator.modPow(x, field);
-            BigInteger gxi = generator.modPow(i.getOfShareholder(), field);
-            for (int dj = 0; dj < contributions.length; ++dj) {
-                DPRFContribution j = contributions[dj];
-                if (di != dj) {
-                    BigInteger xj = generator.modPow(j.getOfShareholder(), field);
-                    BigInteger numerator = gx.subtract(xj);
-                    BigInteger denominator = gxi.subtract(xj);
-                    BigInteger li = numerator.multiply(denominator.modInverse(field));
-                    l = l.multiply(li).mod(field);
+        return interpolate(x, contributionsList.toArray(new DPRFContribution[0]));
+    }
+    
+    /**
+     * Same as {@link #evaluate(DPRFPublicParameters, BigInteger, DPRFContribution...)} for contributions that
+     * were already verified, e.g., with {@link #batchVerify(DPRFPublicParameters, DPRFContribution...)}.
+     */
+    public BigInteger evaluateWithoutVerification(BigInteger x, DPRFContribution... d) {
+        LinkedList<DPRFContribution> contributionsList = new LinkedList<>();
+        for (DPRFContribution contribute : d) {
+            if (!contribute.getOfShareholder().equals(x)) {
+                contributionsList.add(contribute);
+                if (contributionsList.size() > threshold) {
+                    break;
                 }
             }
+        }
+        return interpolate(x, contributionsList.toArray(new DPRFContribution[0]));
+    }
+    
+    /**
+     * Evaluates the DPRF at x on behalf of a dealer that holds the private parameters of all shareholders.
+     * Contributions are computed directly, without generating or verifying their proofs. Shareholders are
+     * selected in the same order as in {@link #evaluate(DPRFPublicParameters, BigInteger, DPRFContribution...)}.
+     */
+    public BigInteger dealerEvaluate(DPRFParameters parameters, BigInteger x, BigInteger... shareholders) {
+        BigInteger xHNumber = new BigInteger(hash(x.toByteArray()));
+        LinkedList<DPRFContribution> contributionsList = new LinkedList<>();
+        for (BigInteger shareholder : shareholders) {
+            if (!shareholder.equals(x)) {
+                BigInteger alphaShare = parameters.getPrivateParameterOf(shareholder).getAlphaShare();
+                BigInteger f = pow(xHNumber, alphaShare);
+                contributionsList.add(new DPRFContribution(shareholder, x, f, null, null));
+                if (contributionsList.size() > threshold) {
+                    break;
+                }
+            }
+        }
+        return interpolate(x, contributionsList.toArray(new DPRFContribution[0]));
+    }
+    
+    private BigInteger interpolate(BigInteger x, DPRFContribution[] contributions) {
+        BigInteger[] shareholders = new BigInteger[contributions.length];
+        for (int i = 0; i < contributions.length; ++i) {
+            shareholders[i] = contributions[i].getOfShareholder();
+        }
+        Map<BigInteger, BigInteger> coefficients = lagrangeCoefficients.get(x, shareholders);
+        if (coefficients == null) {
+            coefficients = computeLagrangeCoefficients(x, shareholders);
+            lagrangeCoefficients.put(x, shareholders, coefficients);
+        }
+        BigInteger result = BigInteger.ZERO;
+        for (DPRFContribution contribution : contributions) {
+            BigInteger l = contribution.getF().multiply(coefficients.get(contribution.getOfShareholder())).mod(field);
             result = result.add(l).mod(field);
         }
         return new BigInteger(hash(result.toByteArray()));
     }
     
+    private Map<BigInteger, BigInteger> computeLagrangeCoefficients(BigInteger x, BigInteger[] shareholders) {
+        BigInteger generator = new BigInteger(hash(x.toByteArray()));
+        BigInteger gx = generator.modPow(x, field);
+        BigInteger[] gShareholders = new BigInteger[shareholders.length];
+        for (int i = 0; i < shareholders.length; ++i) {
+            gShareholders[i] = generator.modPow(shareholders[i], field);
+        }
+        Map<BigInteger, BigInteger> coefficients = new HashMap<>(shareholders.length);
+        for (int i = 0; i < shareholders.length; ++i) {
+            BigInteger l = BigInteger.ONE;
+            for (int j = 0; j < shareholders.length; ++j) {
+                if (i != j) {
+                    BigInteger numerator = gx.subtract(gShareholders[j]);
+                    BigInteger denominator = gShareholders[i].subtract(gShareholders[j]);
+                    l = l.multiply(numerator.multiply(denominator.modInverse(field))).mod(field);
+                }
+            }
+            coefficients.put(shareholders[i], l);
+        }
+        return coefficients;
+    }
+    
+    /**
+     * Bases registered here get precomputed tables, built on first use. Only bases derived from the
+     * shareholders given to init are registered, so the set stays bounded.
+     */
+    private void registerFixedBase(BigInteger base) {
+        fixedBases.computeIfAbsent(base, b -> new FixedBaseExponentiation(b, field, order));
+    }
+    
+    private BigInteger pow(BigInteger base, BigInteger exponent) {
+        FixedBaseExponentiation fixedBase = fixedBases.get(base);
+        if (fixedBase == null) {
+            return base.modPow(exponent, field);
+        }
+        return fixedBase.pow(exponent);
+    }
+    
+    /**
+     * Computes the product of bases[i]^exponents[i]. Bases with precomputed tables share one pass over their
+     * tables and the remaining ones use modPow. Exponents are reduced modulo field - 1, so negative exponents
+     * need no modInverse.
+     */
+    private BigInteger multiPow(BigInteger[] bases, BigInteger[] exponents) {
+        LinkedList<FixedBaseExponentiation> fixed = new LinkedList<>();
+        LinkedList<BigInteger> fixedExponents = new LinkedList<>();
+        BigInteger result = BigInteger.ONE;
+        for (int i = 0; i < bases.length; i++) {
+            FixedBaseExponentiation fixedBase = fixedBases.get(bases[i]);
+            if (fixedBase == null) {
+                result = result.multiply(bases[i].modPow(exponents[i].mod(order), field)).mod(field);
+            }
+            else {
+                fixed.add(fixedBase);
+                fixedExponents.add(exponents[i]);
+            }
+        }
+        if (fixed.isEmpty()) {
+            return result;
+        }
+        BigInteger fixedResult = FixedBaseExponentiation.multiPow(fixed.toArray(new FixedBaseExponentiation[0]),
+                fixedExponents.toArray(new BigInteger[0]));
+        return result.multiply(fixedResult).mod(field);
+    }
+    
     private byte[] hash(byte[]... data) {
-        hashLock.lock();
+        MessageDigest digest = this.digest.get();
         for (byte[] datum : data) {
             digest.update(datum);
         }
-        byte[] result = digest.digest();
-        hashLock.unlock();
-        return result;
+        return digest.digest();
     }
     
     public BigInteger getRandomNumber() {
         int numBits = field.bitLength() - 1;
-        BigInteger rndBig = new BigInteger(numBits, rndGenerator);
+        BigInteger rndBig = new BigInteger(numBits, rndGenerator.get());
         if (rndBig.compareTo(BigInteger.ZERO) == 0) {
             rndBig = rndBig.add(BigInteger.ONE);
         }
@@ -0,0 +1,61 @@
+package vssr.dprf;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of DPRF interpolation coefficients, keyed by the evaluation point and the set of
+ * contributing shareholders.
+ */
+class LagrangeCoefficientCache {
+    private final Map<Key, Map<BigInteger, BigInteger>> cache;
+
+    LagrangeCoefficientCache(int capacity) {
+        this.cache = new LinkedHashMap<Key, Map<BigInteger, BigInteger>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Map<BigInteger, BigInteger>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized Map<BigInteger, BigInteger> get(BigInteger x, BigInteger[] shareholders) {
+        return cache.get(new Key(x, shareholders));
+    }
+
+    synchronized void put(BigInteger x, BigInteger[] shareholders, Map<BigInteger, BigInteger> coefficients) {
+        cache.put(new Key(x, shareholders), coefficients);
+    }
+
+    private static class Key {
+        private final BigInteger x;
+        private final BigInteger[] shareholders;
+        private final int hashCode;
+
+        private Key(BigInteger x, BigInteger[] shareholders) {
+            this.x = x;
+            this.shareholders = shareholders.clone();
+            Arrays.sort(this.shareholders);
+            this.hashCode = 31 * x.hashCode() + Arrays.hashCode(this.shareholders);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key)o;
+            return x.equals(key.x) && Arrays.equals(shareholders, key.shareholders);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -1,22 +1,66 @@
 package vssr.encrypted;
 
+import vss.commitment.Commitment;
+
 import java.io.*;
 import java.util.Arrays;
 
 public class EncryptedConfidentialMessage {
+	private final byte[] digest;
+	private final boolean digestOnly;
 	private final byte[] plainData;
 	private final EncryptedConfidentialData[] shares;
 
 	public EncryptedConfidentialMessage() {
-		this.plainData = null;
-		this.shares = null;
+		this(null, false, null);
 	}
 
 	public EncryptedConfidentialMessage(byte[] plainData, EncryptedConfidentialData... shares) {
+		this(null, false, plainData, shares);
+	}
+
+	private EncryptedConfidentialMessage(byte[] digest, boolean digestOnly, byte[] plainData,
+										 EncryptedConfidentialData... shares) {
+		this.digest = digest;
+		this.digestOnly = digestOnly;
 		this.plainData = plainData;
 		this.shares = shares;
 	}
 
+	/**
+	 * Returns this message carrying the {@link ReplyDigest digest} of its content, by which clients compare replies.
+	 */
+	public EncryptedConfidentialMessage withDigest(byte[] digest) {
+		return new EncryptedConfidentialMessage(digest, false, plainData, shares);
+	}
+
+	/**
+	 * Returns the reply of a server other than the designated one: the digest and, for each secret, the encrypted
+	 * share and the commitments that differ between servers. The plain data and shared data are left out.
+	 */
+	public EncryptedConfidentialMessage toDigestOnly(byte[] digest) {
+		EncryptedConfidentialData[] strippedShares = null;
+		if (shares != null) {
+			strippedShares = new EncryptedConfidentialData[shares.length];
+			for (int i = 0; i < shares.length; i++) {
+				EncryptedVerifiableShare share = shares[i].getShare();
+				Commitment commitment = ReplyDigest.isCommonCommitment(share.getCommitments()) ? null
+						: share.getCommitments();
+				strippedShares[i] = new EncryptedConfidentialData(new EncryptedVerifiableShare(share.getShareholder(),
+						share.getShare(), commitment, null));
+			}
+		}
+		return new EncryptedConfidentialMessage(digest, true, null, strippedShares);
+	}
+
+	public byte[] getDigest() {
+		return digest;
+	}
+
+	public boolean isDigestOnly() {
+		return digestOnly;
+	}
+
 	public byte[] getPlainData() {
 		return plainData;
 	}
@@ -28,6 +72,11 @@ public class EncryptedConfidentialMessage {
 	public byte[] serialize() {
 		try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
 			 ObjectOutput out = new ObjectOutputStream(bos)) {
+			out.writeInt((digest == null) ? -1 : digest.length);
+			if (digest != null) {
+				out.write(digest);
+			}
+			out.writeBoolean(digestOnly);
 			out.writeInt((plainData == null) ? -1 : plainData.length);
 			if (plainData != null) {
 				out.write(plainData);
@@ -51,6 +100,12 @@ public class EncryptedConfidentialMessage {
 		try (ByteArrayInputStream bis = new ByteArrayInputStream(serializedData);
 			 ObjectInput in = new ObjectInputStream(bis)) {
 			int len = in.readInt();
+			byte[] digest = (len == -1) ? null : new byte[len];
+			if (len != -1) {
+				in.readFully(digest);
+			}
+			boolean digestOnly = in.readBoolean();
+			len = in.readInt();
 			byte[] plainData = (len == -1) ? null : new byte[len];
 			if (len != -1) {
 				in.readFully(plainData);
@@ -64,13 +119,32 @@ public class EncryptedConfidentialMessage {
 					shares[i] = share;
 				}
 			}
-			return new EncryptedConfidentialMessage(plainData, shares);
+			return new EncryptedConfidentialMessage(digest, digestOnly, plainData, shares);
 		} catch (IOException | ClassNotFoundException e) {
 			e.printStackTrace();
 			return null;
 		}
 	}
 
+	/**
+	 * Reads the digest at the start of a serialized message without deserializing the rest of it. Returns null if the
+	 * message has no digest or is malformed.
+	 */
+	public static byte[] readDigest(final byte[] serializedData) {
+		try (ByteArrayInputStream bis = new ByteArrayInputStream(serializedData);
+			 ObjectInput in = new ObjectInputStream(bis)) {
+			int len = in.readInt();
+			if (len < 0 || len > serializedData.length) {
+				return null;
+			}
+			byte[] digest = new byte[len];
+			in.readFully(digest);
+			return digest;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	@Override
 	public boolean equals(final Object o) {
 		if (this == o) {
@@ -80,6 +154,10 @@ public class EncryptedConfidentialMessage {
 			return false;
 		}
 		final EncryptedConfidentialMessage that = (EncryptedConfidentialMessage)o;
+		//digest replies differ between servers except for the digest
+		if (this.digest != null || that.digest != null) {
+			return Arrays.equals(this.digest, that.digest);
+		}
 		if (!Arrays.equals(this.plainData, that.plainData)) {
 			return false;
 		}
@@ -102,6 +180,9 @@ public class EncryptedConfidentialMessage {
 
 	@Override
 	public int hashCode() {
+		if (this.digest != null) {
+			return Arrays.hashCode(this.digest);
+		}
 		int result = Arrays.hashCode(this.plainData);
 		if (this.shares != null) {
 			for (final EncryptedConfidentialData share : this.shares) {
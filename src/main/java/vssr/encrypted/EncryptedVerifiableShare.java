@@ -56,7 +56,7 @@ public class EncryptedVerifiableShare implements Externalizable {
 
     @Override
     public String toString() {
-        return String.format("(\n%s\n%s\n%s\n)", Arrays.toString(share), commitments.toString(), Arrays.toString(sharedData));
+        return String.format("(\n%s\n%s\n%s\n)", Arrays.toString(share), commitments, Arrays.toString(sharedData));
     }
 
     @Override
@@ -85,7 +85,10 @@ public class EncryptedVerifiableShare implements Externalizable {
         out.writeInt(share == null ? -1 : share.length);
         if (share != null)
             out.write(share);
-        CommitmentUtils.getInstance().writeCommitment(commitments, out);
+        //commitments are left out of digest replies
+        out.writeBoolean(commitments != null);
+        if (commitments != null)
+            CommitmentUtils.getInstance().writeCommitment(commitments, out);
         out.writeInt(sharedData == null ? -1 : sharedData.length);
         if (sharedData != null)
             out.write(sharedData);
@@ -104,7 +107,9 @@ public class EncryptedVerifiableShare implements Externalizable {
             in.readFully(share);
         }
 
-        commitments = CommitmentUtils.getInstance().readCommitment(in);
+        if (in.readBoolean()) {
+            commitments = CommitmentUtils.getInstance().readCommitment(in);
+        }
         len = in.readInt();
         if (len != -1) {
             sharedData = new byte[len];
@@ -0,0 +1,95 @@
+package vssr.encrypted;
+
+import vss.commitment.Commitment;
+import vss.commitment.CommitmentType;
+import vss.commitment.CommitmentUtils;
+
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digest of the part of an encrypted response that is equal in every server's reply: the plain data and, for each
+ * secret, the encrypted data and its commitment. Commitments that are equal at every server are digested in full.
+ * Constant commitments carry per-server witnesses, so only their consistent hash is digested.
+ */
+public final class ReplyDigest {
+    private static final ThreadLocal<MessageDigest> messageDigest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to initialize message digest", e);
+        }
+    });
+
+    private ReplyDigest() {
+    }
+
+    public static byte[] compute(byte[] plainData, EncryptedConfidentialData[] shares) {
+        MessageDigest digest = messageDigest.get();
+        digest.reset();
+        try (ObjectOutput out = new ObjectOutputStream(new DigestingOutputStream(digest))) {
+            out.writeInt(plainData == null ? -1 : plainData.length);
+            if (plainData != null) {
+                out.write(plainData);
+            }
+            out.writeInt(shares == null ? -1 : shares.length);
+            if (shares != null) {
+                for (EncryptedConfidentialData share : shares) {
+                    byte[] sharedData = share.getShare().getSharedData();
+                    out.writeInt(sharedData == null ? -1 : sharedData.length);
+                    if (sharedData != null) {
+                        out.write(sharedData);
+                    }
+                    Commitment commitment = share.getShare().getCommitments();
+                    if (isCommonCommitment(commitment)) {
+                        CommitmentUtils.getInstance().writeCommitment(commitment, out);
+                    }
+                    else {
+                        out.writeInt(commitment.consistentHash());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to digest response", e);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Returns true if every server replies with the same commitment, which then does not need to be sent by all.
+     */
+    public static boolean isCommonCommitment(Commitment commitment) {
+        CommitmentType type = commitment.getCommitmentType();
+        return type == CommitmentType.LINEAR || type == CommitmentType.ELLIPTIC_CURVE;
+    }
+
+    /**
+     * The server that sends the common part of the response in digest replies. It rotates with the request
+     * sequence, so a retried request is answered in full by another server.
+     */
+    public static int designatedReplier(int[] processes, int clientId, int sequence) {
+        return processes[Math.floorMod(clientId + sequence, processes.length)];
+    }
+
+    private static class DigestingOutputStream extends OutputStream {
+        private final MessageDigest digest;
+
+        private DigestingOutputStream(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(int b) {
+            digest.update((byte)b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            digest.update(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package vssr.math;
+
+import java.math.BigInteger;
+
+/**
+ * Modular multiplication with Barrett reduction, which is cheaper than {@link BigInteger#mod(BigInteger)}
+ * for operands in [0, modulus).
+ */
+public class BarrettReducer {
+    private final BigInteger modulus;
+    private final int modulusBits;
+    private final BigInteger factor;
+
+    public BarrettReducer(BigInteger modulus) {
+        this.modulus = modulus;
+        this.modulusBits = modulus.bitLength();
+        this.factor = BigInteger.ONE.shiftLeft(2 * modulusBits).divide(modulus);
+    }
+
+    public BigInteger multiply(BigInteger a, BigInteger b) {
+        BigInteger x = a.multiply(b);
+        BigInteger q = x.shiftRight(modulusBits - 1).multiply(factor).shiftRight(modulusBits + 1);
+        BigInteger r = x.subtract(q.multiply(modulus));
+        while (r.compareTo(modulus) >= 0) {
+            r = r.subtract(modulus);
+        }
+        return r;
+    }
+}
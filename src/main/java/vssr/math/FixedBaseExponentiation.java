@@ -0,0 +1,104 @@
+package vssr.math;
+
+import java.math.BigInteger;
+
+/**
+ * Computes powers of a fixed base using a precomputed table of base^(d * 2^(w * i)) for every w-bit digit d
+ * and window i, trading squarings for table lookups. The table is built on first use and is safe to share
+ * between threads.
+ * <p>
+ * Exponents are reduced modulo the order of the base's group, so negative exponents yield the inverse
+ * without calling modInverse.
+ */
+public class FixedBaseExponentiation {
+    public static final int DEFAULT_WINDOW_BITS = 6;
+    private final BigInteger base;
+    private final BigInteger modulus;
+    private final BigInteger order;
+    private final int windowBits;
+    private final BarrettReducer reducer;
+    private volatile BigInteger[][] table;
+
+    public FixedBaseExponentiation(BigInteger base, BigInteger modulus, BigInteger order) {
+        this(base, modulus, order, DEFAULT_WINDOW_BITS);
+    }
+
+    public FixedBaseExponentiation(BigInteger base, BigInteger modulus, BigInteger order, int windowBits) {
+        this.base = base.mod(modulus);
+        this.modulus = modulus;
+        this.order = order;
+        this.windowBits = windowBits;
+        this.reducer = new BarrettReducer(modulus);
+    }
+
+    public BigInteger getBase() {
+        return base;
+    }
+
+    public BigInteger pow(BigInteger exponent) {
+        return accumulate(BigInteger.ONE, exponent);
+    }
+
+    /**
+     * Computes the product of bases[i]^exponents[i] with a single accumulator over the tables of all bases,
+     * avoiding intermediate results. All bases must share the same modulus and order.
+     */
+    public static BigInteger multiPow(FixedBaseExponentiation[] bases, BigInteger[] exponents) {
+        BigInteger result = BigInteger.ONE;
+        for (int i = 0; i < bases.length; i++) {
+            result = bases[i].accumulate(result, exponents[i]);
+        }
+        return result;
+    }
+
+    private BigInteger accumulate(BigInteger result, BigInteger exponent) {
+        if (base.signum() == 0) {
+            return result.multiply(base.modPow(exponent, modulus)).mod(modulus);
+        }
+        BigInteger e = exponent.mod(order);
+        BigInteger[][] t = getTable();
+        for (int i = 0; i < t.length; i++) {
+            int digit = 0;
+            int offset = i * windowBits;
+            for (int b = 0; b < windowBits; b++) {
+                if (e.testBit(offset + b)) {
+                    digit |= 1 << b;
+                }
+            }
+            if (digit != 0) {
+                result = reducer.multiply(result, t[i][digit]);
+            }
+        }
+        return result;
+    }
+
+    private BigInteger[][] getTable() {
+        BigInteger[][] t = table;
+        if (t == null) {
+            synchronized (this) {
+                t = table;
+                if (t == null) {
+                    t = computeTable();
+                    table = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    private BigInteger[][] computeTable() {
+        int nWindows = (order.bitLength() + windowBits - 1) / windowBits;
+        int nDigits = 1 << windowBits;
+        BigInteger[][] t = new BigInteger[nWindows][nDigits];
+        BigInteger windowBase = base;
+        for (int i = 0; i < nWindows; i++) {
+            t[i][0] = BigInteger.ONE;
+            t[i][1] = windowBase;
+            for (int d = 2; d < nDigits; d++) {
+                t[i][d] = reducer.multiply(t[i][d - 1], windowBase);
+            }
+            windowBase = reducer.multiply(t[i][nDigits - 1], windowBase);
+        }
+        return t;
+    }
+}
@@ -0,0 +1,73 @@
+package vssr.math;
+
+import java.math.BigInteger;
+
+/**
+ * Computes the product of many bases raised to short exponents with the bucket (Pippenger) method: for each
+ * window of exponent bits, bases are multiplied into buckets by digit and the buckets are combined with two
+ * multiplications each. The cost per base is about one multiplication per window instead of a full modPow.
+ */
+public class MultiExponentiation {
+    private static final int MAX_WINDOW_BITS = 16;
+
+    private MultiExponentiation() {
+    }
+
+    /**
+     * Exponents must be non-negative.
+     */
+    public static BigInteger pow(BigInteger[] bases, BigInteger[] exponents, BigInteger modulus) {
+        BarrettReducer reducer = new BarrettReducer(modulus);
+        BigInteger[] reducedBases = new BigInteger[bases.length];
+        int maxBits = 0;
+        for (int i = 0; i < bases.length; i++) {
+            reducedBases[i] = bases[i].mod(modulus);
+            maxBits = Math.max(maxBits, exponents[i].bitLength());
+        }
+        int windowBits = windowBits(bases.length);
+        int nWindows = (maxBits + windowBits - 1) / windowBits;
+        BigInteger[] buckets = new BigInteger[1 << windowBits];
+        BigInteger result = BigInteger.ONE;
+        for (int w = nWindows - 1; w >= 0; w--) {
+            if (w != nWindows - 1) {
+                for (int s = 0; s < windowBits; s++) {
+                    result = reducer.multiply(result, result);
+                }
+            }
+            int offset = w * windowBits;
+            for (int i = 0; i < reducedBases.length; i++) {
+                int digit = 0;
+                for (int b = 0; b < windowBits; b++) {
+                    if (exponents[i].testBit(offset + b)) {
+                        digit |= 1 << b;
+                    }
+                }
+                if (digit != 0) {
+                    buckets[digit] = buckets[digit] == null ? reducedBases[i]
+                            : reducer.multiply(buckets[digit], reducedBases[i]);
+                }
+            }
+            //sum of bucket[d]^d computed as a running product from the highest digit down
+            BigInteger running = null;
+            BigInteger windowResult = null;
+            for (int d = buckets.length - 1; d > 0; d--) {
+                if (buckets[d] != null) {
+                    running = running == null ? buckets[d] : reducer.multiply(running, buckets[d]);
+                    buckets[d] = null;
+                }
+                if (running != null) {
+                    windowResult = windowResult == null ? running : reducer.multiply(windowResult, running);
+                }
+            }
+            if (windowResult != null) {
+                result = reducer.multiply(result, windowResult);
+            }
+        }
+        return result;
+    }
+
+    private static int windowBits(int nBases) {
+        int log = 31 - Integer.numberOfLeadingZeros(Math.max(nBases, 1));
+        return Math.max(2, Math.min(MAX_WINDOW_BITS, log - 3));
+    }
+}
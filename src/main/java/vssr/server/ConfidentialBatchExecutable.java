@@ -0,0 +1,15 @@
+package vssr.server;
+
+import bftsmart.tom.MessageContext;
+import vssr.ConfidentialData;
+import vssr.ConfidentialMessage;
+
+/**
+ * Application executing the ordered client requests of a decided batch at once. The responses, in the order of the
+ * requests, must be the ones of executing the requests one at a time with
+ * {@link #appExecuteOrdered(byte[], ConfidentialData[], MessageContext)}, for instance by running them with a
+ * {@link DeterministicScheduler}. Replies to the requests of a batch are sent once the whole batch is executed.
+ */
+public interface ConfidentialBatchExecutable extends ConfidentialSingleExecutable {
+    ConfidentialMessage[] appExecuteBatch(byte[][] plainData, ConfidentialData[][] shares, MessageContext[] msgCtx);
+}
@@ -6,11 +6,14 @@ import bftsmart.statemanagement.StateManager;
 import bftsmart.tom.MessageContext;
 import bftsmart.tom.ReplicaContext;
 import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
 import bftsmart.tom.server.ProposeRequestVerifier;
 import bftsmart.tom.server.Recoverable;
+import bftsmart.tom.server.Replier;
 import bftsmart.tom.server.SingleExecutable;
 import bftsmart.tom.server.defaultservices.CommandsInfo;
 import bftsmart.tom.server.defaultservices.DefaultApplicationState;
+import bftsmart.tom.server.defaultservices.DefaultReplier;
 import bftsmart.tom.util.TOMUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +27,7 @@ import vssr.encrypted.EncryptedConfidentialData;
 import vssr.encrypted.EncryptedConfidentialMessage;
 import vssr.encrypted.EncryptedShare;
 import vssr.encrypted.EncryptedVerifiableShare;
+import vssr.encrypted.ReplyDigest;
 import vssr.interServersCommunication.InterServersCommunication;
 import vssr.statemanagement.ConfidentialSnapshot;
 import vssr.statemanagement.ConfidentialStateLog;
@@ -35,7 +39,6 @@ import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.math.BigInteger;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 public final class ConfidentialRecoverable implements SingleExecutable, Recoverable, ProposeRequestVerifier {
@@ -54,20 +57,34 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
     private int currentF;
     private final boolean useTLSEncryption;
     private final ConfidentialSingleExecutable confidentialExecutor;
+    private final ConfidentialBatchExecutable batchExecutor;
+    private final List<BatchedRequest> pendingBatch;
+    private int lastDeliveredCid;
+    private TOMMessage lastDelivered;
     private boolean isLinearCommitmentScheme;
-    private final Map<Integer, Request> deserializedRequests;
+    private final PreprocessedRequestCache preprocessedRequests;
     private final boolean verifyClientsRequests;
+    private ReplyEncryptionStage replyEncryptionStage;
+    private Replier replier;
+    private final EncryptedShareCache shareCache;
 
     public ConfidentialRecoverable(int processId, ConfidentialSingleExecutable confidentialExecutor) {
         this.logger = LoggerFactory.getLogger("confidential");
         this.processId = processId;
         this.confidentialExecutor = confidentialExecutor;
+        this.batchExecutor = confidentialExecutor instanceof ConfidentialBatchExecutable
+                ? (ConfidentialBatchExecutable)confidentialExecutor : null;
+        this.pendingBatch = new ArrayList<>();
+        this.lastDeliveredCid = -1;
         this.logLock = new ReentrantLock();
         this.commands = new ArrayList<>();
         this.msgContexts = new ArrayList<>();
         this.useTLSEncryption = Configuration.getInstance().useTLSEncryption();
-        this.deserializedRequests = new ConcurrentHashMap<>();
+        this.preprocessedRequests = new PreprocessedRequestCache(Configuration.getInstance().getCachedVerifiedRequests(),
+                Configuration.getInstance().getCachedVerifiedRequestAge());
         this.verifyClientsRequests = Configuration.getInstance().isVerifyClientRequests();
+        long shareCacheBytes = Configuration.getInstance().getEncryptedShareCacheBytes();
+        this.shareCache = shareCacheBytes > 0 ? new EncryptedShareCache(shareCacheBytes) : null;
     }
 
     public void setReplicaContext(ReplicaContext replicaContext) {
@@ -97,20 +114,26 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
         Metadata metadata = Metadata.getMessageType(request.getMetadata()[0]);
         logger.debug("Metadata: {}", metadata);
         if (metadata == Metadata.VERIFY) {
+            //proposed requests are checked in parallel, so their shares are decrypted here even when they are not
+            //verified, leaving less work to the execution of ordered requests
+            Request req = preprocessRequest(request.getContent(), request.getPrivateContent(), request.getSender());
+            if (req != null) {
+                preprocessedRequests.put(request.getSender(), request.getSession(), request.getSequence(),
+                        request.getContent(), request.getPrivateContent(), req);
+            }
             if (!verifyClientsRequests) {
                 return true;
             }
-            Request req = preprocessRequest(request.getContent(), request.getPrivateContent(), request.getSender());
             if (req == null || req.getShares() == null) {
                 return false;
             }
-            deserializedRequests.put(hashRequest(request.getSender(), request.getSession(), request.getSequence()), req);
-            for (ConfidentialData share : req.getShares()) {
-                boolean isValid = confidentialityScheme.verify(share.getShare());
-                if (!isValid) {
-                    logger.warn("Client {} sent me an invalid share", request.getSender());
-                    return false;
-                }
+            VSSRShare[] shares = new VSSRShare[req.getShares().length];
+            for (int i = 0; i < shares.length; i++) {
+                shares[i] = req.getShares()[i].getShare();
+            }
+            if (!confidentialityScheme.verifyAll(shares)) {
+                logger.warn("Client {} sent me an invalid share", request.getSender());
+                return false;
             }
             return true;
         }
@@ -123,13 +146,6 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
         }
     }
 
-    private int hashRequest(int sender, int session, int sequence) {
-        int hash = sender;
-        hash = 31 * hash + session;
-        hash = 31 * hash + sequence;
-        return hash;
-    }
-
     private ConfidentialStateLog getLog() {
         if (log == null) {
             log = initLog();
@@ -176,6 +192,9 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
                 logger.info("Installing snapshot up to CID {}", lastCheckpointCID);
                 ConfidentialSnapshot snapshot = ConfidentialSnapshot.deserialize(state.getSerializedState());
                 confidentialExecutor.installConfidentialSnapshot(snapshot);
+                if (shareCache != null) {
+                    shareCache.clear();
+                }
             }
             for (int cid = lastCheckpointCID + 1; cid <= lastCID; ++cid) {
                 try {
@@ -188,6 +207,8 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
                         byte[][] commands = cmdInfo.commands;
                         MessageContext[] msgCtx = cmdInfo.msgCtx;
                         if (commands != null && msgCtx != null && !msgCtx[0].isNoOp()) {
+                            List<Request> batch = new ArrayList<>(commands.length);
+                            List<MessageContext> batchMsgCtx = new ArrayList<>(commands.length);
                             for (int i = 0; i < commands.length; ++i) {
                                 Request request = Request.deserialize(commands[i]);
                                 if (request == null) {
@@ -196,10 +217,17 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
                                 else if (request.getType() == MessageType.APPLICATION) {
                                     logger.debug("Ignoring application request");
                                 }
+                                else if (batchExecutor != null) {
+                                    batch.add(request);
+                                    batchMsgCtx.add(msgCtx[i]);
+                                }
                                 else {
                                     confidentialExecutor.appExecuteOrdered(request.getPlainData(), request.getShares(), msgCtx[i]);
                                 }
                             }
+                            if (!batch.isEmpty()) {
+                                appExecuteBatch(batch, batchMsgCtx);
+                            }
                         }
                     }
                 }
@@ -231,6 +259,7 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
 
     public void noOp(int CID, byte[][] operations, MessageContext[] msgCtx) {
         logger.debug("NoOp");
+        executePendingBatch();
         for (byte[] operation : operations) {
             Object obj = TOMUtil.getObject(operation);
             if (obj instanceof ReconfigureRequest) {
@@ -254,38 +283,167 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
     }
 
     public byte[] executeOrdered(byte[] command, byte[] privateData, MessageContext msgCtx) {
-        Request request;
-        if (verifyClientsRequests) {
-            int hash = hashRequest(msgCtx.getSender(), msgCtx.getSession(), msgCtx.getSequence());
-            request = deserializedRequests.remove(hash);
-            if (request == null) {
-                request = preprocessRequest(command, privateData, msgCtx.getSender());
-            }
-        }
-        else {
-            request = preprocessRequest(command, privateData, msgCtx.getSender());
-        }
+        Request request = takeOrderedRequest(command, privateData, msgCtx);
         if (request == null) {
             return null;
         }
         byte[] preprocessedCommand = request.serialize();
         byte[] response;
         if (request.getType() == MessageType.APPLICATION) {
-            logger.debug("Received application ordered message of {} in CID {}. Regency: {}", msgCtx.getSender(),
-                    msgCtx.getConsensusId(), msgCtx.getRegency());
-            interServersCommunication.messageReceived(request.getPlainData(), msgCtx);
-            response = new byte[0];
+            response = receiveOrderedApplicationMessage(request, msgCtx);
         }
         else {
-            stateLock.lock();
-            ConfidentialMessage r = confidentialExecutor.appExecuteOrdered(request.getPlainData(), request.getShares(), msgCtx);
-            response = (useTLSEncryption ? r.serialize() : encryptResponse(r, msgCtx).serialize());
-            this.stateLock.unlock();
+            response = encodeResponse(executeOrderedClientRequest(request, msgCtx), msgCtx);
         }
         logRequest(preprocessedCommand, msgCtx);
         return response;
     }
 
+    /**
+     * With the reply encryption stage, the response of a client request is left in a pending reply to be encoded by
+     * the stage, outside of the execution of ordered requests. With a {@link ConfidentialBatchExecutable}, client
+     * requests are buffered until the last request of the decided batch that is delivered here, or an application
+     * message, and their replies are sent once they are executed.
+     */
+    @Override
+    public TOMMessage executeOrdered(int processId, int viewId, byte[] command, byte[] privateData, MessageContext msgCtx) {
+        if (replyEncryptionStage == null && batchExecutor == null) {
+            return SingleExecutable.super.executeOrdered(processId, viewId, command, privateData, msgCtx);
+        }
+        if (!pendingBatch.isEmpty() && pendingBatch.get(0).msgCtx.getConsensusId() != msgCtx.getConsensusId()) {
+            //the last request of the previous batch was not executed here
+            executePendingBatch();
+        }
+        Request request = takeOrderedRequest(command, privateData, msgCtx);
+        if (request == null) {
+            if (isLastDeliveredInBatch(msgCtx)) {
+                executePendingBatch();
+            }
+            return getTOMMessage(processId, viewId, command, msgCtx, null);
+        }
+        byte[] preprocessedCommand = request.serialize();
+        TOMMessage result;
+        if (request.getType() == MessageType.APPLICATION) {
+            executePendingBatch();
+            result = getTOMMessage(processId, viewId, command, msgCtx, receiveOrderedApplicationMessage(request, msgCtx));
+        }
+        else if (batchExecutor != null) {
+            pendingBatch.add(new BatchedRequest(processId, viewId, command, msgCtx, request));
+            result = null;
+        }
+        else {
+            ConfidentialMessage r = executeOrderedClientRequest(request, msgCtx);
+            result = getTOMMessage(processId, viewId, command, msgCtx, new byte[0]);
+            result.reply = new ReplyEncryptionStage.PendingReply(result.reply, r);
+        }
+        if (isLastDeliveredInBatch(msgCtx)) {
+            executePendingBatch();
+        }
+        logRequest(preprocessedCommand, msgCtx);
+        return result;
+    }
+
+    /**
+     * ServiceReplica only marks the last request of a decided batch when it is an ordered request of the current view.
+     * When the batch ends with a reconfiguration or a request of an older view, buffered requests are executed after
+     * the last request delivered here, instead of waiting for the next consensus.
+     */
+    private boolean isLastDeliveredInBatch(MessageContext msgCtx) {
+        if (msgCtx.isLastInBatch()) {
+            return true;
+        }
+        if (pendingBatch.isEmpty()) {
+            return false;
+        }
+        int cid = msgCtx.getConsensusId();
+        if (cid != lastDeliveredCid) {
+            lastDeliveredCid = cid;
+            lastDelivered = ((ConfidentialStateManager)getStateManager()).getLastDeliveredRequest(cid);
+        }
+        return lastDelivered == null || (lastDelivered.getSender() == msgCtx.getSender()
+                && lastDelivered.getSession() == msgCtx.getSession()
+                && lastDelivered.getSequence() == msgCtx.getSequence());
+    }
+
+    /**
+     * Executes the buffered client requests and hands their replies to the replier.
+     */
+    private void executePendingBatch() {
+        if (pendingBatch.isEmpty()) {
+            return;
+        }
+        List<Request> requests = new ArrayList<>(pendingBatch.size());
+        List<MessageContext> msgCtx = new ArrayList<>(pendingBatch.size());
+        for (BatchedRequest batchedRequest : pendingBatch) {
+            requests.add(batchedRequest.request);
+            msgCtx.add(batchedRequest.msgCtx);
+        }
+        ConfidentialMessage[] responses;
+        stateLock.lock();
+        try {
+            responses = appExecuteBatch(requests, msgCtx);
+        } finally {
+            stateLock.unlock();
+        }
+        for (int i = 0; i < responses.length; i++) {
+            BatchedRequest batchedRequest = pendingBatch.get(i);
+            if (responses[i] == null) {
+                logger.warn("No response to the request of client {}", batchedRequest.msgCtx.getSender());
+                continue;
+            }
+            TOMMessage reply;
+            if (replyEncryptionStage == null) {
+                reply = getTOMMessage(batchedRequest.processId, batchedRequest.viewId, batchedRequest.command,
+                        batchedRequest.msgCtx, encodeResponse(responses[i], batchedRequest.msgCtx));
+            }
+            else {
+                reply = getTOMMessage(batchedRequest.processId, batchedRequest.viewId, batchedRequest.command,
+                        batchedRequest.msgCtx, new byte[0]);
+                reply.reply = new ReplyEncryptionStage.PendingReply(reply.reply, responses[i]);
+            }
+            replier.manageReply(reply, batchedRequest.msgCtx);
+        }
+        pendingBatch.clear();
+    }
+
+    private ConfidentialMessage[] appExecuteBatch(List<Request> requests, List<MessageContext> msgCtx) {
+        byte[][] plainData = new byte[requests.size()][];
+        ConfidentialData[][] shares = new ConfidentialData[requests.size()][];
+        for (int i = 0; i < plainData.length; i++) {
+            plainData[i] = requests.get(i).getPlainData();
+            shares[i] = requests.get(i).getShares();
+        }
+        return batchExecutor.appExecuteBatch(plainData, shares, msgCtx.toArray(new MessageContext[0]));
+    }
+
+    private Request takeOrderedRequest(byte[] command, byte[] privateData, MessageContext msgCtx) {
+        Request request = null;
+        if (msgCtx.getMetadata() != null && Metadata.getMessageType(msgCtx.getMetadata()[0]) == Metadata.VERIFY) {
+            request = preprocessedRequests.take(msgCtx.getSender(), msgCtx.getSession(), msgCtx.getSequence(), command,
+                    privateData);
+        }
+        if (request == null) {
+            request = preprocessRequest(command, privateData, msgCtx.getSender());
+        }
+        return request;
+    }
+
+    private byte[] receiveOrderedApplicationMessage(Request request, MessageContext msgCtx) {
+        logger.debug("Received application ordered message of {} in CID {}. Regency: {}", msgCtx.getSender(),
+                msgCtx.getConsensusId(), msgCtx.getRegency());
+        interServersCommunication.messageReceived(request.getPlainData(), msgCtx);
+        return new byte[0];
+    }
+
+    private ConfidentialMessage executeOrderedClientRequest(Request request, MessageContext msgCtx) {
+        stateLock.lock();
+        try {
+            return confidentialExecutor.appExecuteOrdered(request.getPlainData(), request.getShares(), msgCtx);
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
     public byte[] executeUnordered(byte[] command, byte[] privateData, MessageContext msgCtx) {
         Request request = preprocessRequest(command, privateData, msgCtx.getSender());
         if (request == null) {
@@ -298,26 +456,61 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
             return new byte[0];
         }
         ConfidentialMessage r = confidentialExecutor.appExecuteUnordered(request.getPlainData(), request.getShares(), msgCtx);
-        return useTLSEncryption ? r.serialize() : encryptResponse(r, msgCtx).serialize();
+        return encodeResponse(r, msgCtx);
+    }
+
+    private byte[] encodeResponse(ConfidentialMessage clearResponse, MessageContext msgCtx) {
+        return useTLSEncryption ? clearResponse.serialize() : encryptResponse(clearResponse, msgCtx).serialize();
+    }
+
+    /**
+     * Returns the replier to give to the replica: the given one, or the reply encryption stage in front of it when
+     * cobra.reply_encryption_threads is positive. Replies to batched requests are also handed to it.
+     */
+    Replier createReplier(Replier replier) {
+        int nThreads = Configuration.getInstance().getReplyEncryptionThreads();
+        if (nThreads > 0) {
+            replyEncryptionStage = new ReplyEncryptionStage(replier == null ? new DefaultReplier() : replier, nThreads,
+                    this::encodeResponse);
+            replier = replyEncryptionStage;
+        }
+        else if (replier == null && batchExecutor != null) {
+            replier = new DefaultReplier();
+        }
+        this.replier = replier;
+        return replier;
     }
 
     private EncryptedConfidentialMessage encryptResponse(ConfidentialMessage clearResponse, MessageContext msgCtx) {
         ConfidentialData[] clearShares = clearResponse.getShares();
-        if (clearShares == null) {
-            return new EncryptedConfidentialMessage(clearResponse.getPlainData());
-        }
-        EncryptedConfidentialData[] shares = new EncryptedConfidentialData[clearShares.length];
-        for (int i = 0; i < clearShares.length; ++i) {
+        EncryptedConfidentialData[] shares = new EncryptedConfidentialData[(clearShares == null) ? 0 : clearShares.length];
+        for (int i = 0; i < shares.length; ++i) {
             ConfidentialData clearCD = clearShares[i];
             EncryptedVerifiableShare encryptedVS = encryptShare(msgCtx.getSender(), clearCD.getShare().getShareAtIndex(0));
             shares[i] = new EncryptedConfidentialData(encryptedVS);
         }
-        return new EncryptedConfidentialMessage(clearResponse.getPlainData(), shares);
+        EncryptedConfidentialMessage response = new EncryptedConfidentialMessage(clearResponse.getPlainData(), shares);
+        //clients compare replies by this digest and deserialize them only once enough of them match
+        byte[] digest = ReplyDigest.compute(clearResponse.getPlainData(), shares);
+        //ordered requests are answered in full, as they are not retried when the designated server is slow
+        if (msgCtx.getType() != TOMMessageType.UNORDERED_REQUEST || !Metadata.isDigestReplies(msgCtx.getMetadata())) {
+            return response.withDigest(digest);
+        }
+        //only the designated server sends the common part of the response
+        int designatedReplier = ReplyDigest.designatedReplier(replicaContext.getSVController().getCurrentViewProcesses(),
+                msgCtx.getSender(), msgCtx.getSequence());
+        return designatedReplier == processId ? response.withDigest(digest) : response.toDigestOnly(digest);
     }
 
     private EncryptedVerifiableShare encryptShare(int id, VerifiableShare clearShare) {
         try {
-            byte[] encryptedShare = this.confidentialityScheme.encryptShareFor(id, clearShare.getShare());
+            byte[] encryptedShare = (shareCache == null) ? null : shareCache.get(id, clearShare.getShare().getShare());
+            if (encryptedShare == null) {
+                encryptedShare = this.confidentialityScheme.encryptShareFor(id, clearShare.getShare());
+                if (shareCache != null) {
+                    shareCache.put(id, clearShare.getShare().getShare(), encryptedShare);
+                }
+            }
             return new EncryptedVerifiableShare(clearShare.getShare().getShareholder(), encryptedShare,
                     clearShare.getCommitments(), clearShare.getSharedData());
         } catch (SecretSharingException e) {
@@ -349,6 +542,9 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
                             in.readFully(rBytes);
                             BigInteger r = new BigInteger(rBytes);
                             BigInteger shareholder = confidentialityScheme.getMyShareholderId();
+                            if (confidentialityScheme.isBulkShareEncryption()) {
+                                privateData = confidentialityScheme.decryptShares(processId, privateData);
+                            }
                             ByteArrayInputStream privateBis = new ByteArrayInputStream(privateData);
                             try (ObjectInput privateIn = new ObjectInputStream(privateBis)) {
                                 for (int i = 0; i < len; ++i) {
@@ -455,6 +651,10 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
             ConfidentialSnapshot snapshot = confidentialExecutor.getConfidentialSnapshot();
             stateLock.unlock();
             saveState(snapshot.serialize(), cid);
+            logger.info("Preprocessed request cache: {}", preprocessedRequests);
+            if (shareCache != null) {
+                logger.info("Encrypted share cache: {}", shareCache);
+            }
         }
         else {
             saveCommands(commands.toArray(new byte[0][]), msgContexts.toArray(new MessageContext[0]));
@@ -463,4 +663,20 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
         commands.clear();
         msgContexts.clear();
     }
+
+    private static class BatchedRequest {
+        private final int processId;
+        private final int viewId;
+        private final byte[] command;
+        private final MessageContext msgCtx;
+        private final Request request;
+
+        private BatchedRequest(int processId, int viewId, byte[] command, MessageContext msgCtx, Request request) {
+            this.processId = processId;
+            this.viewId = viewId;
+            this.command = command;
+            this.msgCtx = msgCtx;
+            this.request = request;
+        }
+    }
 }
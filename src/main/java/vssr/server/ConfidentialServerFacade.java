@@ -27,6 +27,6 @@ public final class ConfidentialServerFacade {
     public ConfidentialServerFacade(int processId, ConfidentialSingleExecutable confidentialExecutor,
                                     RequestVerifier requestVerifier, Replier replier, KeyLoader loader, Provider provider) {
         ConfidentialRecoverable cr = new ConfidentialRecoverable(processId, confidentialExecutor);
-        new ServiceReplica(processId, cr, cr, requestVerifier, replier, loader, provider, cr);
+        new ServiceReplica(processId, cr, cr, requestVerifier, cr.createReplier(replier), loader, provider, cr);
     }
 }
@@ -0,0 +1,202 @@
+package vssr.server;
+
+import vssr.ConfidentialMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntFunction;
+
+/**
+ * Executes the requests of a batch in parallel while producing the responses of executing them one at a time, in
+ * order. Each request declares the keys it reads and writes, and starts only after every earlier request it conflicts
+ * with has finished: an earlier write of a key it reads or writes, or an earlier read of a key it writes. Requests
+ * accessing the whole state wait for all earlier requests, and all later requests wait for them.
+ *
+ * <p>Responses match the sequential execution as long as requests only access the state through the keys they
+ * declare, and the state allows concurrent access to different keys.</p>
+ */
+public class DeterministicScheduler {
+    private final ForkJoinPool pool;
+
+    public DeterministicScheduler(int nThreads) {
+        this.pool = nThreads > 1 ? new ForkJoinPool(nThreads) : null;
+    }
+
+    public ConfidentialMessage[] execute(AccessSet[] accessSets, IntFunction<ConfidentialMessage> request) {
+        ConfidentialMessage[] responses = new ConfidentialMessage[accessSets.length];
+        if (pool == null || accessSets.length < 2) {
+            for (int i = 0; i < responses.length; i++) {
+                responses[i] = request.apply(i);
+            }
+            return responses;
+        }
+        List<List<Integer>> dependents = new ArrayList<>(accessSets.length);
+        AtomicIntegerArray pendingDependencies = computeDependencies(accessSets, dependents);
+        CountDownLatch finished = new CountDownLatch(accessSets.length);
+        Throwable[] failure = new Throwable[1];
+        //roots are found before any request runs and releases others
+        List<Integer> roots = new ArrayList<>();
+        for (int i = 0; i < accessSets.length; i++) {
+            if (pendingDependencies.get(i) == 0) {
+                roots.add(i);
+            }
+        }
+        for (int root : roots) {
+            submit(root, request, responses, dependents, pendingDependencies, finished, failure);
+        }
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while executing a batch", e);
+        }
+        synchronized (failure) {
+            if (failure[0] instanceof RuntimeException) {
+                throw (RuntimeException)failure[0];
+            }
+            if (failure[0] instanceof Error) {
+                throw (Error)failure[0];
+            }
+            if (failure[0] != null) {
+                throw new IllegalStateException("Failed to execute a batch", failure[0]);
+            }
+        }
+        return responses;
+    }
+
+    private void submit(int i, IntFunction<ConfidentialMessage> request, ConfidentialMessage[] responses,
+                        List<List<Integer>> dependents, AtomicIntegerArray pendingDependencies,
+                        CountDownLatch finished, Throwable[] failure) {
+        pool.execute(() -> {
+            try {
+                responses[i] = request.apply(i);
+            } catch (Throwable e) {
+                synchronized (failure) {
+                    if (failure[0] == null) {
+                        failure[0] = e;
+                    }
+                }
+            } finally {
+                //dependents are released even after a failure, so that the batch always finishes
+                for (int dependent : dependents.get(i)) {
+                    if (pendingDependencies.decrementAndGet(dependent) == 0) {
+                        submit(dependent, request, responses, dependents, pendingDependencies, finished, failure);
+                    }
+                }
+                finished.countDown();
+            }
+        });
+    }
+
+    /**
+     * Fills the requests that depend on each request and returns how many requests each one depends on. Only the
+     * closest conflicting requests are recorded, as they depend in turn on the earlier ones.
+     */
+    private static AtomicIntegerArray computeDependencies(AccessSet[] accessSets, List<List<Integer>> dependents) {
+        AtomicIntegerArray pendingDependencies = new AtomicIntegerArray(accessSets.length);
+        Map<Object, Integer> lastWriters = new HashMap<>();
+        Map<Object, List<Integer>> readersSinceWrite = new HashMap<>();
+        List<Integer> sinceBarrier = new ArrayList<>();
+        int lastBarrier = -1;
+        for (int i = 0; i < accessSets.length; i++) {
+            dependents.add(new ArrayList<>(0));
+            AccessSet accessSet = accessSets[i];
+            List<Integer> dependencies = new ArrayList<>();
+            if (accessSet.isWholeState()) {
+                dependencies.addAll(sinceBarrier);
+                if (lastBarrier >= 0 && sinceBarrier.isEmpty()) {
+                    dependencies.add(lastBarrier);
+                }
+                lastBarrier = i;
+                sinceBarrier.clear();
+                lastWriters.clear();
+                readersSinceWrite.clear();
+            }
+            else {
+                if (lastBarrier >= 0) {
+                    dependencies.add(lastBarrier);
+                }
+                for (Object key : accessSet.reads) {
+                    Integer writer = lastWriters.get(key);
+                    if (writer != null) {
+                        dependencies.add(writer);
+                    }
+                }
+                for (Object key : accessSet.writes) {
+                    Integer writer = lastWriters.get(key);
+                    if (writer != null) {
+                        dependencies.add(writer);
+                    }
+                    List<Integer> readers = readersSinceWrite.remove(key);
+                    if (readers != null) {
+                        dependencies.addAll(readers);
+                    }
+                }
+                for (Object key : accessSet.reads) {
+                    if (!accessSet.writes.contains(key)) {
+                        readersSinceWrite.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+                    }
+                }
+                for (Object key : accessSet.writes) {
+                    lastWriters.put(key, i);
+                }
+                sinceBarrier.add(i);
+            }
+            int nDependencies = 0;
+            for (int dependency : dependencies) {
+                List<Integer> dependentsOfDependency = dependents.get(dependency);
+                //the same request may conflict on several keys
+                if (dependentsOfDependency.isEmpty() || dependentsOfDependency.get(dependentsOfDependency.size() - 1) != i) {
+                    dependentsOfDependency.add(i);
+                    nDependencies++;
+                }
+            }
+            pendingDependencies.set(i, nDependencies);
+        }
+        return pendingDependencies;
+    }
+
+    /**
+     * Keys a request reads and writes.
+     */
+    public static final class AccessSet {
+        private static final AccessSet WHOLE_STATE = new AccessSet(null, null);
+        private final Collection<?> reads;
+        private final Collection<?> writes;
+
+        private AccessSet(Collection<?> reads, Collection<?> writes) {
+            this.reads = reads;
+            this.writes = writes;
+        }
+
+        public static AccessSet of(Collection<?> reads, Collection<?> writes) {
+            return new AccessSet(reads, writes);
+        }
+
+        public static AccessSet reading(Object key) {
+            return new AccessSet(Collections.singleton(key), Collections.emptySet());
+        }
+
+        public static AccessSet writing(Object key) {
+            return new AccessSet(Collections.emptySet(), Collections.singleton(key));
+        }
+
+        /**
+         * Access set of a request that may read or write any key.
+         */
+        public static AccessSet wholeState() {
+            return WHOLE_STATE;
+        }
+
+        public boolean isWholeState() {
+            return this == WHOLE_STATE;
+        }
+    }
+}
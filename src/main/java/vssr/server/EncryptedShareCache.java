@@ -0,0 +1,134 @@
+package vssr.server;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least recently used cache of the shares encrypted for each client, bounded by the bytes it holds. Only the value of a
+ * share is encrypted, so entries are keyed by client and share value, and keep neither the stored share nor its
+ * commitments and shared data. A share that is overwritten or refreshed has a new value and never hits the entry of
+ * the old one, which is evicted in time or dropped by {@link #clear()}.
+ */
+class EncryptedShareCache {
+    //rough size of an entry besides the encrypted share and the share value: map node, key, big integer and arrays
+    private static final int ENTRY_OVERHEAD = 128;
+    private final long maxBytes;
+    private final LinkedHashMap<Key, byte[]> entries;
+    private long bytes;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    EncryptedShareCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    byte[] get(int clientId, BigInteger share) {
+        byte[] encryptedShare;
+        synchronized (entries) {
+            encryptedShare = entries.get(new Key(clientId, share));
+        }
+        if (encryptedShare == null) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return encryptedShare;
+    }
+
+    void put(int clientId, BigInteger share, byte[] encryptedShare) {
+        Key key = new Key(clientId, share);
+        long size = size(key, encryptedShare);
+        if (size > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            byte[] previous = entries.put(key, encryptedShare);
+            if (previous != null) {
+                bytes -= size(key, previous);
+            }
+            bytes += size;
+            Iterator<Map.Entry<Key, byte[]>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes) {
+                Map.Entry<Key, byte[]> entry = eldest.next();
+                bytes -= size(entry.getKey(), entry.getValue());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static long size(Key key, byte[] encryptedShare) {
+        return encryptedShare.length + key.share.bitLength() / 8 + 1 + ENTRY_OVERHEAD;
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long h = getHits();
+        long m = getMisses();
+        return String.format("hits: %d - misses: %d - hit ratio: %.3f - evictions: %d - entries: %d - bytes: %d",
+                h, m, (h + m == 0) ? 0.0 : h / (double)(h + m), getEvictions(), getSize(), getBytes());
+    }
+
+    private static class Key {
+        private final int clientId;
+        private final BigInteger share;
+
+        private Key(int clientId, BigInteger share) {
+            this.clientId = clientId;
+            this.share = share;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key)o;
+            return clientId == key.clientId && share.equals(key.share);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * clientId + share.hashCode();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package vssr.server;
+
+import vss.commitment.linear.LinearCommitments;
+import vss.secretsharing.Share;
+import vssr.math.BarrettReducer;
+import vssr.math.FixedBaseExponentiation;
+
+import java.math.BigInteger;
+
+/**
+ * Checks shares against linear (Feldman) commitments with the same equation as the commitment scheme,
+ * g^share == prod_j C_j^(x^j) mod p, but computes g^share with a {@link FixedBaseExponentiation} table of powers of g.
+ * The commitments' side is evaluated with Horner's rule on the shareholder, which is a small exponent, and its products
+ * use Barrett reduction, as the modulus never changes.
+ *
+ * <p>The table reduces exponents modulo the order of g, so it is only used if g^order == 1. Otherwise, and for
+ * shareholders whose powers reach p, values are computed with {@link BigInteger#modPow}, so the result is always the
+ * one of the commitment scheme.</p>
+ */
+final class FeldmanShareVerifier {
+    private final BigInteger generator;
+    private final BigInteger p;
+    private final int pBits;
+    private final BarrettReducer reducer;
+    private final FixedBaseExponentiation generatorPowers;
+
+    FeldmanShareVerifier(BigInteger generator, BigInteger p, BigInteger order, int window) {
+        this.generator = generator;
+        this.p = p;
+        this.pBits = p.bitLength();
+        this.reducer = new BarrettReducer(p);
+        this.generatorPowers = generator.modPow(order, p).equals(BigInteger.ONE)
+                ? new FixedBaseExponentiation(generator, p, order, window) : null;
+    }
+
+    boolean checkValidity(Share share, LinearCommitments commitments) {
+        BigInteger power = generatorPowers == null ? generator.modPow(share.getShare(), p)
+                : generatorPowers.pow(share.getShare());
+        return power.equals(evaluateCommitments(share.getShareholder(), commitments.getCommitments()));
+    }
+
+    /**
+     * Computes prod_j C_j^(x^j) mod p, where commitments are ordered from the highest degree coefficient to C_0.
+     */
+    private BigInteger evaluateCommitments(BigInteger x, BigInteger[] commitments) {
+        int degree = commitments.length - 1;
+        //the commitment scheme reduces x^j mod p, which only matters if x^j reaches p
+        if (x.signum() < 0 || x.bitLength() > 31 || (long)x.bitLength() * degree >= pBits) {
+            return evaluateCommitmentsWithModPow(x, commitments);
+        }
+        int exponent = x.intValueExact();
+        BigInteger result = BigInteger.ONE;
+        for (BigInteger commitment : commitments) {
+            result = reducer.multiply(pow(result, exponent), reduce(commitment));
+        }
+        return result;
+    }
+
+    private BigInteger evaluateCommitmentsWithModPow(BigInteger x, BigInteger[] commitments) {
+        BigInteger result = BigInteger.ONE;
+        for (int i = 0, j = commitments.length - 1; i < commitments.length; i++, j--) {
+            BigInteger power = x.modPow(BigInteger.valueOf(j), p);
+            result = result.multiply(commitments[i].modPow(power, p)).mod(p);
+        }
+        return result;
+    }
+
+    private BigInteger pow(BigInteger base, int exponent) {
+        BigInteger result = BigInteger.ONE;
+        for (int b = 31 - Integer.numberOfLeadingZeros(exponent); b >= 0; b--) {
+            result = reducer.multiply(result, result);
+            if ((exponent & (1 << b)) != 0) {
+                result = reducer.multiply(result, base);
+            }
+        }
+        return result;
+    }
+
+    private BigInteger reduce(BigInteger value) {
+        return value.signum() < 0 || value.compareTo(p) >= 0 ? value.mod(p) : value;
+    }
+}
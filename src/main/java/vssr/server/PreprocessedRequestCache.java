@@ -0,0 +1,140 @@
+package vssr.server;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Requests preprocessed when their proposal was checked, kept until they are executed. Entries are keyed by sender,
+ * session and sequence number, and only returned for the same content and private data, so a different request with
+ * the same key is preprocessed again. Requests that are never executed are evicted once the cache holds too many
+ * entries or once they are older than the maximum age.
+ */
+class PreprocessedRequestCache {
+    private final int maxEntries;
+    private final long maxAgeNanos;
+    //insertion order is also age order
+    private final LinkedHashMap<Key, Entry> entries;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    PreprocessedRequestCache(int maxEntries, long maxAgeMillis) {
+        this.maxEntries = maxEntries;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.entries = new LinkedHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    void put(int sender, int session, int sequence, byte[] content, byte[] privateContent, Request request) {
+        Key key = new Key(sender, session, sequence);
+        long now = System.nanoTime();
+        synchronized (entries) {
+            entries.remove(key);
+            entries.put(key, new Entry(content, privateContent, request, now));
+            evict(now);
+        }
+    }
+
+    /**
+     * Removes and returns the request preprocessed from the given content and private data, or null if there is none.
+     */
+    Request take(int sender, int session, int sequence, byte[] content, byte[] privateContent) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.remove(new Key(sender, session, sequence));
+            evict(System.nanoTime());
+        }
+        if (entry == null || !Arrays.equals(entry.content, content)
+                || !Arrays.equals(entry.privateContent, privateContent)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.request;
+    }
+
+    private void evict(long now) {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next();
+            if (entries.size() <= maxEntries && now - entry.timestamp <= maxAgeNanos) {
+                break;
+            }
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long h = getHits();
+        long m = getMisses();
+        return String.format("hits: %d - misses: %d - hit ratio: %.3f - evictions: %d - entries: %d",
+                h, m, (h + m == 0) ? 0.0 : h / (double)(h + m), getEvictions(), getSize());
+    }
+
+    private static class Key {
+        private final int sender;
+        private final int session;
+        private final int sequence;
+
+        private Key(int sender, int session, int sequence) {
+            this.sender = sender;
+            this.session = session;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key)o;
+            return sender == key.sender && session == key.session && sequence == key.sequence;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = sender;
+            hash = 31 * hash + session;
+            hash = 31 * hash + sequence;
+            return hash;
+        }
+    }
+
+    private static class Entry {
+        private final byte[] content;
+        private final byte[] privateContent;
+        private final Request request;
+        private final long timestamp;
+
+        private Entry(byte[] content, byte[] privateContent, Request request, long timestamp) {
+            this.content = content;
+            this.privateContent = privateContent;
+            this.request = request;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package vssr.server;
+
+import bftsmart.tom.MessageContext;
+import bftsmart.tom.ReplicaContext;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.server.Replier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vssr.ConfidentialMessage;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+
+/**
+ * Encrypts and serializes the replies of ordered requests in a pool of workers, so that the thread executing ordered
+ * requests only runs the application. Executed requests carry a {@link PendingReply} with the response of the
+ * application, which the workers replace by the encoded reply before handing the request to the actual replier.
+ */
+class ReplyEncryptionStage implements Replier {
+    private final Logger logger;
+    private final Replier replier;
+    private final BiFunction<ConfidentialMessage, MessageContext, byte[]> encoder;
+    private final ExecutorService workers;
+
+    ReplyEncryptionStage(Replier replier, int nThreads, BiFunction<ConfidentialMessage, MessageContext, byte[]> encoder) {
+        this.logger = LoggerFactory.getLogger("confidential");
+        this.replier = replier;
+        this.encoder = encoder;
+        this.workers = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread thread = new Thread(r, "Reply Encryption Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void setReplicaContext(ReplicaContext replicaContext) {
+        replier.setReplicaContext(replicaContext);
+    }
+
+    @Override
+    public void manageReply(TOMMessage request, MessageContext msgCtx) {
+        if (!(request.reply instanceof PendingReply)) {
+            replier.manageReply(request, msgCtx);
+            return;
+        }
+        PendingReply pendingReply = (PendingReply)request.reply;
+        workers.execute(() -> {
+            byte[] content;
+            try {
+                content = encoder.apply(pendingReply.response, msgCtx);
+            } catch (RuntimeException e) {
+                logger.error("Failed to encode reply to client {}", request.getSender(), e);
+                return;
+            }
+            if (content == null) {
+                return;
+            }
+            request.reply = new TOMMessage(pendingReply.getSender(), pendingReply.getSession(),
+                    pendingReply.getSequence(), pendingReply.getOperationId(), content, new byte[0],
+                    pendingReply.getViewID(), pendingReply.getReqType());
+            replier.manageReply(request, msgCtx);
+        });
+    }
+
+    /**
+     * Reply holding the response of the application until it is encoded. Its content is empty.
+     */
+    static class PendingReply extends TOMMessage {
+        private static final long serialVersionUID = 1L;
+        private final ConfidentialMessage response;
+
+        PendingReply(TOMMessage reply, ConfidentialMessage response) {
+            super(reply.getSender(), reply.getSession(), reply.getSequence(), reply.getOperationId(), new byte[0],
+                    new byte[0], reply.getViewID(), reply.getReqType());
+            this.response = response;
+        }
+    }
+}
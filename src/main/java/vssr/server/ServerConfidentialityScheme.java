@@ -3,11 +3,13 @@ package vssr.server;
 import bftsmart.reconfiguration.views.View;
 import vss.commitment.Commitment;
 import vss.commitment.CommitmentScheme;
+import vss.commitment.linear.LinearCommitments;
 import vss.facade.SecretSharingException;
 import vss.interpolation.InterpolationStrategy;
 import vss.polynomial.Polynomial;
 import vss.secretsharing.Share;
 import vss.secretsharing.VerifiableShare;
+import vssr.Configuration;
 import vssr.RecoveryContribution;
 import vssr.VSSRConfidentialityScheme;
 import vssr.VSSRPublishedShares;
@@ -16,34 +18,40 @@ import vssr.dprf.DPRFContribution;
 import vssr.dprf.DPRFPrivateParameters;
 import vssr.encrypted.EncryptedShare;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
 import java.math.BigInteger;
-import java.security.InvalidKeyException;
-import java.security.Key;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class ServerConfidentialityScheme extends VSSRConfidentialityScheme {
-    private final Key decipheringKey;
+    private final int processId;
     private final BigInteger me;
-    private final Lock shareEncryptionLock;
+    private final ForkJoinPool verificationPool;
+    private final FeldmanShareVerifier feldmanShareVerifier;
     
     public ServerConfidentialityScheme(int processId, View view) throws SecretSharingException {
         super(view);
-        this.decipheringKey = keysManager.getDecryptionKeyFor(processId);
+        this.processId = processId;
         this.me = this.getShareholder(processId);
-        this.shareEncryptionLock = new ReentrantLock(true);
+        Configuration configuration = Configuration.getInstance();
+        int nVerificationThreads = configuration.getVerificationThreads();
+        this.verificationPool = nVerificationThreads > 1 ? new ForkJoinPool(nVerificationThreads) : null;
+        int generatorTableWindow = configuration.getGeneratorTableWindow();
+        this.feldmanShareVerifier = isLinearCommitmentScheme() && generatorTableWindow > 0
+                ? new FeldmanShareVerifier(new BigInteger(configuration.getGenerator(), 16),
+                        new BigInteger(configuration.getPrimeField(), 16), vss.getField(), generatorTableWindow)
+                : null;
     }
     
     public boolean verify(VSSRShare share) {
         VerifiableShare[] verifiableShares = share.getVerifiableShares();
         for (VerifiableShare verifiableShare : verifiableShares) {
             if (verifiableShare != null) {
-                if (!vss.getCommitmentScheme().checkValidityWithoutPreComputation(verifiableShare.getShare(), verifiableShare.getCommitments())) {
+                if (!isValid(verifiableShare)) {
                     System.out.println(verifiableShare);
                     return false;
                 }
@@ -52,27 +60,70 @@ public class ServerConfidentialityScheme extends VSSRConfidentialityScheme {
         return true;
     }
     
+    /**
+     * Verifies the shares of all secrets of a request. With the verification pool, every verifiable share is checked
+     * as a separate task and the results are joined before returning.
+     */
+    public boolean verifyAll(VSSRShare[] shares) {
+        if (verificationPool == null) {
+            return verifySequentially(shares);
+        }
+        List<ForkJoinTask<Boolean>> verifications = new ArrayList<>();
+        for (VSSRShare share : shares) {
+            for (VerifiableShare verifiableShare : share.getVerifiableShares()) {
+                if (verifiableShare != null) {
+                    verifications.add(verificationPool.submit(() -> isValid(verifiableShare)));
+                }
+            }
+        }
+        boolean valid = true;
+        for (ForkJoinTask<Boolean> verification : verifications) {
+            if (!valid) {
+                verification.cancel(false);
+            }
+            else if (!verification.join()) {
+                valid = false;
+            }
+        }
+        return valid;
+    }
+    
+    private boolean verifySequentially(VSSRShare[] shares) {
+        for (VSSRShare share : shares) {
+            if (!verify(share)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private boolean isValid(VerifiableShare verifiableShare) {
+        return checkValidity(verifiableShare.getShare(), verifiableShare.getCommitments());
+    }
+    
+    private boolean checkValidity(Share share, Commitment commitment) {
+        if (feldmanShareVerifier != null && commitment instanceof LinearCommitments) {
+            return feldmanShareVerifier.checkValidity(share, (LinearCommitments)commitment);
+        }
+        return vss.getCommitmentScheme().checkValidityWithoutPreComputation(share, commitment);
+    }
+    
     public VSSRShare extractShare(VSSRPublishedShares privateShares) throws SecretSharingException {
         EncryptedShare[] encryptedShares = privateShares.getShareOf(me);
         if (encryptedShares == null) {
             throw new SecretSharingException("Share not found");
         }
-        try {
-            VerifiableShare[] verifiableShares = new VerifiableShare[encryptedShares.length];
-            for (int i = 0; i < encryptedShares.length; ++i) {
-                EncryptedShare encryptedShare = encryptedShares[i];
-                shareEncryptionLock.lock();
-                BigInteger decryptedShare = new BigInteger(decrypt(encryptedShare.getEncryptedShare(), decipheringKey));
-                shareEncryptionLock.unlock();
-                Share share = new Share(encryptedShare.getShareholder(), decryptedShare);
-                Commitment commitment = vss.getCommitmentScheme().extractCommitment(share.getShareholder(), privateShares.getCommitments()[i]);
-                verifiableShares[i] = new VerifiableShare(share, commitment, (i == 0) ? privateShares.getSharedData() : null);
-            }
-            return new VSSRShare(privateShares.getR(), verifiableShares);
-        }
-        catch (BadPaddingException | IllegalBlockSizeException | InvalidKeyException e) {
-            throw new SecretSharingException("Error while decrypting share!", e);
+        VerifiableShare[] verifiableShares = new VerifiableShare[encryptedShares.length];
+        for (int i = 0; i < encryptedShares.length; ++i) {
+            EncryptedShare encryptedShare = encryptedShares[i];
+            //bulk encrypted shares were already decrypted with the rest of the request
+            BigInteger decryptedShare = isBulkShareEncryption() ? new BigInteger(encryptedShare.getEncryptedShare())
+                    : decryptShare(processId, encryptedShare.getEncryptedShare());
+            Share share = new Share(encryptedShare.getShareholder(), decryptedShare);
+            Commitment commitment = vss.getCommitmentScheme().extractCommitment(share.getShareholder(), privateShares.getCommitments()[i]);
+            verifiableShares[i] = new VerifiableShare(share, commitment, (i == 0) ? privateShares.getSharedData() : null);
         }
+        return new VSSRShare(privateShares.getR(), verifiableShares);
     }
     
     public RecoveryContribution recoveryContribution(VSSRShare share, BigInteger recoveringShareholder) {
@@ -86,6 +137,21 @@ public class ServerConfidentialityScheme extends VSSRConfidentialityScheme {
     }
     
     public VSSRShare recoverShare(final RecoveryContribution[] recoveryContribution) throws SecretSharingException {
+        return recoverShare(recoveryContribution, false);
+    }
+    
+    /**
+     * Batch verifies the DPRF contributions sent by a single shareholder.
+     */
+    public boolean verifyDPRFContributions(DPRFContribution[] dprfContributions) {
+        return dprfScheme.batchVerify(dprfParameters.getPublicParameters(), dprfContributions);
+    }
+    
+    /**
+     * @param dprfContributionsVerified true if the DPRF contributions were already verified with
+     * {@link #verifyDPRFContributions(DPRFContribution[])}
+     */
+    public VSSRShare recoverShare(final RecoveryContribution[] recoveryContribution, boolean dprfContributionsVerified) throws SecretSharingException {
         Share[] recoveryShares = new Share[recoveryContribution.length];
         DPRFContribution[] dprfContributions = new DPRFContribution[recoveryContribution.length];
         Map<BigInteger, Commitment> allCommitments = new HashMap<>(recoveryContribution.length);
@@ -95,7 +161,7 @@ public class ServerConfidentialityScheme extends VSSRConfidentialityScheme {
             RecoveryContribution contribution = recoveryContribution[i];
             Commitment recoveryCommitment = vss.getCommitmentScheme().sumCommitments(contribution.getShareCommitment(), contribution.getRecoveringCommitment());
             recoveryShares[i] = new Share(contribution.getShareholder(), contribution.getRecoveringShare());
-            if (!vss.getCommitmentScheme().checkValidityWithoutPreComputation(recoveryShares[i], recoveryCommitment)) {
+            if (!checkValidity(recoveryShares[i], recoveryCommitment)) {
                 throw new SecretSharingException("Recovery commitment is invalid");
             }
             dprfContributions[i] = contribution.getDPRFContribution();
@@ -115,9 +181,10 @@ public class ServerConfidentialityScheme extends VSSRConfidentialityScheme {
         }
         Commitment recoveredCommitment = vss.getCommitmentScheme().recoverCommitment(me, allCommitments);
         BigInteger s = new Polynomial(getField(), recoveryShares).evaluateAt(me);
-        BigInteger y = dprfScheme.evaluate(dprfParameters.getPublicParameters(), me, dprfContributions);
+        BigInteger y = dprfContributionsVerified ? dprfScheme.evaluateWithoutVerification(me, dprfContributions)
+                : dprfScheme.evaluate(dprfParameters.getPublicParameters(), me, dprfContributions);
         Share recoveredShare = new Share(me, s.subtract(y).mod(getField()));
-        if (!vss.getCommitmentScheme().checkValidityWithoutPreComputation(recoveredShare, recoveredCommitment)) {
+        if (!checkValidity(recoveredShare, recoveredCommitment)) {
             StringBuilder sb = new StringBuilder();
             for (RecoveryContribution contribution : recoveryContribution) {
                 sb.append(contribution.toString());
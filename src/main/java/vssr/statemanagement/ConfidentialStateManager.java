@@ -1,11 +1,15 @@
 package vssr.statemanagement;
 
+import bftsmart.consensus.Consensus;
 import bftsmart.consensus.messages.ConsensusMessage;
 import bftsmart.reconfiguration.views.View;
 import bftsmart.statemanagement.SMMessage;
 import bftsmart.statemanagement.StateManager;
 import bftsmart.tom.core.DeliveryThread;
 import bftsmart.tom.core.TOMLayer;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.BatchReader;
 import bftsmart.tom.server.defaultservices.DefaultApplicationState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +48,32 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
         super.init(tomLayer, dt);
         tomLayer.requestsTimer.Enabled(false);
     }
+
+    /**
+     * Returns the last request of the given consensus that is delivered to the executor, i.e., the last ordered request
+     * of the current view, or null if there is none or the consensus is not being delivered.
+     */
+    public TOMMessage getLastDeliveredRequest(int cid) {
+        if (execManager == null) {
+            return null;
+        }
+        Consensus consensus = execManager.getConsensus(cid);
+        if (!consensus.isDecided()) {
+            return null;
+        }
+        TOMMessage[] requests = consensus.getDecision().getDeserializedValue();
+        if (requests == null) {
+            requests = new BatchReader(consensus.getDecision().getValue(),
+                    SVController.getStaticConf().getUseSignatures() == 1).deserialiseRequests(SVController);
+        }
+        int currentViewId = SVController.getCurrentViewId();
+        for (int i = requests.length - 1; i >= 0; i--) {
+            if (requests[i].getReqType() == TOMMessageType.ORDERED_REQUEST && requests[i].getViewID() == currentViewId) {
+                return requests[i];
+            }
+        }
+        return null;
+    }
     
     private int getRandomReplica() {
         int[] processes = SVController.getCurrentViewOtherAcceptors();
@@ -1,7 +1,10 @@
 package vssr.statemanagement.recovery;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.LinkedList;
+import java.util.Set;
+import vssr.dprf.DPRFContribution;
 import vss.facade.SecretSharingException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
@@ -35,6 +38,11 @@ public class RecoveryBlindedStateHandler extends BlindedStateHandler {
     @Override
     protected Iterator<VSSRShare> reconstructShares(int nShares, Map<BigInteger, RecoveryContribution[]> allBlindedShares) {
         ExecutorService executorService = Executors.newFixedThreadPool(Configuration.getInstance().getShareProcessingThreads());
+        if (!verifyDPRFContributions(executorService, nShares, allBlindedShares)) {
+            logger.error("Not enough replicas sent valid DPRF contributions");
+            executorService.shutdown();
+            return null;
+        }
         CountDownLatch latch = new CountDownLatch(nShares);
         VSSRShare[] recoveredShares = new VSSRShare[nShares];
         BigInteger[] shareholders = new BigInteger[allBlindedShares.size()];
@@ -50,7 +58,7 @@ public class RecoveryBlindedStateHandler extends BlindedStateHandler {
             int finalI = i;
             executorService.execute(() -> {
                 try {
-                    VSSRShare recoveredShare = confidentialityScheme.recoverShare(blindedShares);
+                    VSSRShare recoveredShare = confidentialityScheme.recoverShare(blindedShares, true);
                     if (recoveredShare == null) {
                         return;
                     }
@@ -78,4 +86,51 @@ public class RecoveryBlindedStateHandler extends BlindedStateHandler {
         }
         return result.iterator();
     }
+    
+    /**
+     * Batch verifies the DPRF contributions of each sender in parallel and drops senders whose contributions
+     * are invalid. Returns false if fewer than f + 1 senders remain.
+     */
+    private boolean verifyDPRFContributions(ExecutorService executorService, int nShares,
+                                            Map<BigInteger, RecoveryContribution[]> allBlindedShares) {
+        Set<BigInteger> invalidShareholders = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(allBlindedShares.size());
+        for (Map.Entry<BigInteger, RecoveryContribution[]> entry : allBlindedShares.entrySet()) {
+            executorService.execute(() -> {
+                try {
+                    RecoveryContribution[] contributions = entry.getValue();
+                    if (contributions.length < nShares) {
+                        invalidShareholders.add(entry.getKey());
+                        return;
+                    }
+                    DPRFContribution[] dprfContributions = new DPRFContribution[nShares];
+                    for (int i = 0; i < nShares; ++i) {
+                        dprfContributions[i] = contributions[i].getDPRFContribution();
+                    }
+                    if (!confidentialityScheme.verifyDPRFContributions(dprfContributions)) {
+                        invalidShareholders.add(entry.getKey());
+                    }
+                } catch (RuntimeException e) {
+                    //malformed contributions must not reach the reconstruction, which does not verify them again
+                    logger.debug("Failed to verify DPRF contributions of {}", entry.getKey(), e);
+                    invalidShareholders.add(entry.getKey());
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        for (BigInteger shareholder : invalidShareholders) {
+            int process = confidentialityScheme.getProcess(shareholder);
+            logger.warn("Replica {} sent invalid DPRF contributions", process);
+            allBlindedShares.remove(shareholder);
+            stillValidSenders.remove(process);
+            corruptedServers.incrementAndGet();
+        }
+        return allBlindedShares.size() > f;
+    }
 }